@@ -1,15 +1,484 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
- * Class representing a directory of File contents.
+ * Class representing a directory of File contents. Contents are stored compressed under their
+ * SHA1 (see Utils.writeStored), possibly in a Pack, and are always read back through a stream.
+ *
+ * <p>A new version of a tracked file may instead be stored as a Delta against the version its
+ * parent commit tracked, as long as the chain of deltas it has to be rebuilt through stays within
+ * MAX_DEPTH. Rebuilt contents are kept in a small cache, since consecutive versions of a file are
+ * usually read together.
+ *
+ * <p>Files bigger than CHUNK_THRESHOLD are split into chunks at content-defined boundaries (where
+ * a rolling hash of the preceding bytes has its low bits clear), each chunk is stored as a blob of
+ * its own, and the file is stored as a manifest of its chunks. An edit then only changes the
+ * chunks around it, and chunks shared between files or versions are stored once.
  *
  * @author Randy Nguyen
  */
 public class Blobs implements Serializable {
 
-  /** The pathway to the objects directory. */
-  static final File FOLDER = Utils.join(Command.GITLET_FOLDER, "objects");
+  /**
+   * Returns the folder of the current repository holding its blobs.
+   *
+   * @return File
+   */
+  static File folder() {
+    return Utils.join(Command.gitletFolder(), "objects");
+  }
+
+  /** Largest file stored as a delta or used as a base. Bigger ones are stored whole. */
+  static final int DELTA_LIMIT = 16 << 20;
+
+  /** Longest chain of deltas a blob may have to be rebuilt through. */
+  static final int MAX_DEPTH = 16;
+
+  /** Most bytes of rebuilt contents kept in the cache. */
+  static final long CACHE_LIMIT = 64 << 20;
+
+  /** Files bigger than this are stored as a manifest of chunks. */
+  static final long CHUNK_THRESHOLD = 8 << 20;
+
+  /** Smallest chunk cut, except at the end of a file. */
+  static final int MIN_CHUNK = 64 << 10;
+
+  /** Largest chunk cut. */
+  static final int MAX_CHUNK = 1 << 20;
+
+  /** A chunk ends where the rolling hash has all these bits clear: 256 KB on average. */
+  private static final long CHUNK_MASK = (1L << 18) - 1;
+
+  /** Random values mixed into the rolling hash per byte value. Fixed, so cuts are stable. */
+  private static final long[] GEAR = new long[256];
+
+  static {
+    Random gen = new Random(0x6769746c6574L);
+    for (int i = 0; i < GEAR.length; i += 1) {
+      GEAR[i] = gen.nextLong();
+    }
+  }
+
+  /** Inflater each thread uses to write blobs to files. */
+  private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+  /** Buffer each thread inflates blobs into on their way to a file. */
+  private static final ThreadLocal<ByteBuffer> OUTPUT =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Utils.STORE_BUFFER));
+
+  /** Most files writeTo may have open at once, summed over every thread of the process. */
+  private static final int WRITE_LIMIT = 16;
+
+  /** Permits to open a file in writeTo, one held for each file being written. */
+  private static final Semaphore WRITERS = new Semaphore(WRITE_LIMIT);
+
+  /** Rebuilt contents of recently read blobs, by sha1, least recently used first. */
+  private static final LinkedHashMap<String, byte[]> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** Total bytes held in the cache. */
+  private static long _cached;
+
+  /**
+   * Stores the contents of SRC unless a blob with the same contents already exists, and returns
+   * their SHA1. SRC is read exactly once, and hashed as it is read. If BASE names an earlier
+   * version of the same file, stores a delta against it when that is much smaller than the
+   * contents.
+   *
+   * @param src the file to be stored
+   * @param base sha1 of an earlier version, or null
+   * @return String the sha1 of the contents of src
+   * @throws IOException in event of abnormal files
+   */
+  public static String write(File src, String base) throws IOException {
+    long size = src.length();
+    if (size > CHUNK_THRESHOLD) {
+      return writeChunked(src);
+    }
+    if (base != null && size <= DELTA_LIMIT) {
+      byte[] contents = Files.readAllBytes(src.toPath());
+      String sha = Utils.sha1(contents);
+      if (!Pack.contains(folder(), sha) && !writeDelta(sha, contents, base)) {
+        Utils.writeStored(Pack.newLoose(folder(), sha), contents);
+      }
+      return sha;
+    }
+    File tmp = File.createTempFile("blob", null, folder());
+    try {
+      MessageDigest md = Utils.sha1Digest();
+      try (InputStream in = new DigestInputStream(Files.newInputStream(src.toPath()), md)) {
+        Utils.writeStored(tmp, in);
+      }
+      String sha = Utils.toHex(md.digest());
+      if (!Pack.contains(folder(), sha)) {
+        Files.move(
+            tmp.toPath(), Pack.newLoose(folder(), sha).toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+      return sha;
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Stores TARGET under SHA as a delta against BASE and returns true, unless the chain would grow
+   * too deep, BASE is too big, or the delta would save less than half of the contents.
+   *
+   * @param sha the sha1 of the contents of src
+   * @param target the contents of src
+   * @param base sha1 of an earlier version
+   * @return boolean whether a delta was written
+   */
+  private static boolean writeDelta(String sha, byte[] target, String base) {
+    if (base.equals(sha)) {
+      return false;
+    }
+    int depth = depth(base) + 1;
+    if (depth > MAX_DEPTH) {
+      return false;
+    }
+    byte[] baseContents = contents(base);
+    if (baseContents == null) {
+      return false;
+    }
+    byte[] delta = Delta.create(baseContents, target);
+    if (delta.length > target.length / 2) {
+      return false;
+    }
+    byte[] preamble = new byte[Utils.UID_LENGTH + 1];
+    System.arraycopy(base.getBytes(StandardCharsets.US_ASCII), 0, preamble, 0, Utils.UID_LENGTH);
+    preamble[Utils.UID_LENGTH] = (byte) depth;
+    Utils.writeStored(
+        Pack.newLoose(folder(), sha),
+        Utils.ENCODING_DELTA,
+        preamble,
+        new ByteArrayInputStream(delta));
+    return true;
+  }
+
+  /**
+   * Stores SRC as a manifest of content-defined chunks, storing each chunk not already present as
+   * a blob of its own, and returns the sha1 of its contents. Reads SRC once, holding at most one
+   * chunk in memory.
+   *
+   * @param src the file to be stored
+   * @return String the sha1 of the contents of src
+   * @throws IOException in event of abnormal files
+   */
+  private static String writeChunked(File src) throws IOException {
+    MessageDigest md = Utils.sha1Digest();
+    ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(manifest);
+    byte[] chunk = new byte[MAX_CHUNK];
+    byte[] buf = new byte[Utils.STORE_BUFFER];
+    try (InputStream in = Files.newInputStream(src.toPath())) {
+      int len = 0;
+      long hash = 0;
+      for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+        md.update(buf, 0, n);
+        for (int i = 0; i < n; i += 1) {
+          chunk[len] = buf[i];
+          len += 1;
+          hash = (hash << 1) + GEAR[buf[i] & 0xff];
+          if (len == MAX_CHUNK || (len >= MIN_CHUNK && (hash & CHUNK_MASK) == 0)) {
+            writeChunk(out, chunk, len);
+            len = 0;
+            hash = 0;
+          }
+        }
+      }
+      if (len > 0) {
+        writeChunk(out, chunk, len);
+      }
+    }
+    out.close();
+    String sha = Utils.toHex(md.digest());
+    if (!Pack.contains(folder(), sha)) {
+      Utils.writeStored(
+          Pack.newLoose(folder(), sha),
+          Utils.ENCODING_CHUNKED,
+          new byte[0],
+          new ByteArrayInputStream(manifest.toByteArray()));
+    }
+    return sha;
+  }
+
+  /**
+   * Stores the first LEN bytes of CHUNK as a blob unless already present, and appends its sha1
+   * and length to the manifest OUT.
+   *
+   * @param out the manifest being written
+   * @param chunk buffer holding the chunk
+   * @param len length of the chunk
+   * @throws IOException on write errors
+   */
+  private static void writeChunk(DataOutputStream out, byte[] chunk, int len) throws IOException {
+    byte[] contents = Arrays.copyOf(chunk, len);
+    String id = Utils.sha1(contents);
+    if (!Pack.contains(folder(), id)) {
+      Utils.writeStored(Pack.newLoose(folder(), id), contents);
+    }
+    out.write(id.getBytes(StandardCharsets.US_ASCII));
+    out.writeInt(len);
+  }
+
+  /**
+   * Returns the sha1s of the chunks listed in the manifest read from IN, in order.
+   *
+   * @param in the decoded manifest
+   * @return List<String> chunk ids
+   * @throws IOException if the manifest cannot be read
+   */
+  private static List<String> chunks(InputStream in) throws IOException {
+    DataInputStream manifest = new DataInputStream(in);
+    List<String> result = new ArrayList<>();
+    byte[] id = new byte[Utils.UID_LENGTH];
+    while (manifest.readNBytes(id, 0, id.length) == id.length) {
+      result.add(new String(id, StandardCharsets.US_ASCII));
+      manifest.readInt();
+    }
+    return result;
+  }
+
+  /**
+   * Returns a stream over the contents of the blob with the given SHA1. The caller closes it.
+   *
+   * @param sha the sha1 of a blob
+   * @return InputStream the decoded contents
+   */
+  public static InputStream open(String sha) {
+    BufferedInputStream in =
+        new BufferedInputStream(Pack.openRaw(folder(), sha), Utils.STORE_BUFFER);
+    int encoding = Utils.readStoredHeader(in, sha);
+    if (encoding == Utils.ENCODING_DELTA) {
+      close(in);
+      return new ByteArrayInputStream(contents(sha));
+    } else if (encoding == Utils.ENCODING_CHUNKED) {
+      List<String> ids;
+      try (InputStream manifest = new InflaterInputStream(in)) {
+        ids = chunks(manifest);
+      } catch (IOException excp) {
+        throw new IllegalArgumentException(excp.getMessage());
+      }
+      Iterator<String> next = ids.iterator();
+      return new SequenceInputStream(
+          new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+              return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+              if (!next.hasNext()) {
+                throw new NoSuchElementException();
+              }
+              return open(next.next());
+            }
+          });
+    }
+    return encoding == Utils.ENCODING_DEFLATE ? new InflaterInputStream(in) : in;
+  }
+
+  /**
+   * Writes the contents of the blob with the given SHA1 to the file DEST, replacing it. A blob
+   * stored whole is inflated straight from its mapped bytes into a direct buffer kept for the
+   * calling thread and written from there, and one stored raw by an older version is written from
+   * its mapped bytes as they are, so neither passes through a byte array. Others are streamed.
+   * However many threads call this, at most WRITE_LIMIT files are being written at once, so a
+   * parallel checkout cannot run the process out of file descriptors.
+   *
+   * @param sha the sha1 of a blob
+   * @param dest the file to write
+   */
+  public static void writeTo(String sha, File dest) {
+    WRITERS.acquireUninterruptibly();
+    try {
+      write(sha, dest);
+    } finally {
+      WRITERS.release();
+    }
+  }
+
+  /**
+   * Writes the contents of the blob with the given SHA1 to the file DEST, as for writeTo, without
+   * waiting for a permit.
+   *
+   * @param sha the sha1 of a blob
+   * @param dest the file to write
+   */
+  private static void write(String sha, File dest) {
+    ByteBuffer raw = Pack.map(folder(), sha);
+    int header = Utils.STORE_MAGIC.length + 2;
+    byte[] magic = new byte[Utils.STORE_MAGIC.length];
+    if (raw.remaining() >= header) {
+      raw.duplicate().get(magic);
+    }
+    boolean stored = Arrays.equals(magic, Utils.STORE_MAGIC);
+    if (stored
+        && (raw.get(raw.position() + header - 2) != Utils.STORE_VERSION
+            || raw.get(raw.position() + header - 1) != Utils.ENCODING_DEFLATE)) {
+      try (InputStream in = open(sha)) {
+        Files.copy(in, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException excp) {
+        throw new IllegalArgumentException(excp.getMessage());
+      }
+      return;
+    }
+    try (FileChannel out =
+        FileChannel.open(
+            dest.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      if (!stored) {
+        while (raw.hasRemaining()) {
+          out.write(raw);
+        }
+        return;
+      }
+      raw.position(raw.position() + header);
+      Inflater inflater = INFLATER.get();
+      inflater.reset();
+      inflater.setInput(raw);
+      ByteBuffer buf = OUTPUT.get();
+      while (!inflater.finished()) {
+        buf.clear();
+        if (inflater.inflate(buf) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw Utils.error("Corrupt object %s.", sha);
+        }
+        buf.flip();
+        while (buf.hasRemaining()) {
+          out.write(buf);
+        }
+      }
+    } catch (IOException | DataFormatException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+  }
+
+  /**
+   * Returns the contents of the blob with the given SHA1 as a String.
+   *
+   * @param sha the sha1 of a blob
+   * @return String contents
+   */
+  public static String readString(String sha) {
+    return new String(Utils.readAll(open(sha)), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the whole contents of the blob with the given SHA1, rebuilding it through its deltas
+   * if needed, or null if it is chunked or is stored whole and is bigger than DELTA_LIMIT.
+   *
+   * @param sha the sha1 of a blob
+   * @return byte[] contents
+   */
+  private static byte[] contents(String sha) {
+    synchronized (CACHE) {
+      byte[] hit = CACHE.get(sha);
+      if (hit != null) {
+        return hit;
+      }
+    }
+    byte[] result;
+    BufferedInputStream in =
+        new BufferedInputStream(Pack.openRaw(folder(), sha), Utils.STORE_BUFFER);
+    try (in) {
+      int encoding = Utils.readStoredHeader(in, sha);
+      if (encoding == Utils.ENCODING_DELTA) {
+        byte[] preamble = in.readNBytes(Utils.UID_LENGTH + 1);
+        String base = new String(preamble, 0, Utils.UID_LENGTH, StandardCharsets.US_ASCII);
+        byte[] baseContents = contents(base);
+        if (baseContents == null) {
+          throw Utils.error("Missing delta base %s of %s.", base, sha);
+        }
+        result = Delta.apply(baseContents, new InflaterInputStream(in));
+      } else if (encoding == Utils.ENCODING_CHUNKED) {
+        return null;
+      } else {
+        InputStream decoded = encoding < 0 ? in : new InflaterInputStream(in);
+        result = decoded.readNBytes(DELTA_LIMIT + 1);
+        if (result.length > DELTA_LIMIT) {
+          return null;
+        }
+      }
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+    synchronized (CACHE) {
+      byte[] old = CACHE.put(sha, result);
+      _cached += result.length - (old == null ? 0 : old.length);
+      Iterator<Map.Entry<String, byte[]>> oldest = CACHE.entrySet().iterator();
+      while (_cached > CACHE_LIMIT && oldest.hasNext()) {
+        _cached -= oldest.next().getValue().length;
+        oldest.remove();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of deltas the blob with the given SHA1 is rebuilt through: 0 if it is
+   * stored whole.
+   *
+   * @param sha the sha1 of a blob
+   * @return int depth
+   */
+  private static int depth(String sha) {
+    BufferedInputStream in =
+        new BufferedInputStream(Pack.openRaw(folder(), sha), Utils.STORE_BUFFER);
+    try (in) {
+      if (Utils.readStoredHeader(in, sha) != Utils.ENCODING_DELTA) {
+        return 0;
+      }
+      byte[] preamble = in.readNBytes(Utils.UID_LENGTH + 1);
+      return preamble[Utils.UID_LENGTH] & 0xff;
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+  }
+
+  /**
+   * Closes IN, ignoring errors.
+   *
+   * @param in a stream
+   */
+  private static void close(InputStream in) {
+    try {
+      in.close();
+    } catch (IOException excp) {
+      return;
+    }
+  }
 }
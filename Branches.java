@@ -3,34 +3,89 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Class representing pointers to saved commits.
  *
+ * <p>A branch is a file in the branches folder holding the 40-character SHA1 of the commit it
+ * points to. Branches may also be listed in packed-refs, one "ID NAME" line per branch, which
+ * repack writes so repositories with many branches need not keep a file for each. A branch file
+ * takes precedence over a packed entry of the same name. Branch files written by older versions,
+ * which held a whole copy of the commit, are still understood.
+ *
+ * <p>The head branch and its commit id are resolved at most once per command.
+ *
  * @author Randy Nguyen
  */
 public class Branches implements Serializable {
 
-  /** Pathway representing all the existing pointers. */
-  static final File FOLDER = Utils.join(Command.GITLET_FOLDER, "branches");
+  /**
+   * Returns the folder of the current repository holding its branch files.
+   *
+   * @return File
+   */
+  static File folder() {
+    return Utils.join(Command.gitletFolder(), "branches");
+  }
+
+  /**
+   * Returns the file of the current repository listing its packed branches.
+   *
+   * @return File
+   */
+  static File packedFile() {
+    return Utils.join(Command.gitletFolder(), "packed-refs");
+  }
+
+  /** Name of the head branch, once read during this command. */
+  private String _headName;
+
+  /** Commit id of the head branch, once resolved during this command. */
+  private ObjectId _headId;
 
-  /** Branch denoting the current/active commit. */
-  static final File HEAD = Utils.join(FOLDER, Utils.readContentsAsString(Command.HEAD));
+  /** Packed branches by name, once read during this command. */
+  private TreeMap<String, ObjectId> _packed;
 
-  /** Branch denoting the initial main branch. */
-  static final File MAIN = Utils.join(FOLDER, "main");
+  /**
+   * Returns what this command has learned about the branches of the current repository.
+   *
+   * @return Branches
+   */
+  private static Branches state() {
+    return Repository.current().branches();
+  }
 
   /**
-   * Returns a String that represents the current head branch's Commit sha1 ID.
+   * Returns the name of the current head branch.
    *
    * @return String
    */
-  public static String headId() {
-    return Utils.sha1(Utils.readContents(HEAD));
+  public static String headName() {
+    if (state()._headName == null) {
+      state()._headName = Utils.readContentsAsString(Command.headFile());
+    }
+    return state()._headName;
+  }
+
+  /**
+   * Returns the sha1 ID of the current head branch's Commit.
+   *
+   * @return ObjectId
+   */
+  public static ObjectId headId() {
+    if (state()._headId == null) {
+      state()._headId = resolve(headName());
+    }
+    return state()._headId;
   }
 
   /**
@@ -39,38 +94,139 @@ public class Branches implements Serializable {
    * @return Commit
    */
   public static Commit headCommit() {
-    return Utils.readObject(HEAD, Commit.class);
+    return Commit.read(headId());
+  }
+
+  /**
+   * Returns the commit id the branch with the given name points to, or null if there is no such
+   * branch.
+   *
+   * @param name a branch name
+   * @return ObjectId commit sha1
+   */
+  public static ObjectId resolve(String name) {
+    File f = Utils.join(folder(), name);
+    if (f.isFile()) {
+      byte[] contents = Utils.readContents(f);
+      if (contents.length == Utils.UID_LENGTH) {
+        return ObjectId.fromHex(new String(contents, StandardCharsets.US_ASCII));
+      }
+      return ObjectId.fromHex(Utils.sha1(contents));
+    }
+    return packed().get(name);
+  }
+
+  /**
+   * Returns true iff a branch with the given name exists.
+   *
+   * @param name a branch name
+   * @return boolean
+   */
+  public static boolean exists(String name) {
+    return Utils.join(folder(), name).isFile() || packed().containsKey(name);
+  }
+
+  /**
+   * Returns the names of all branches in lexicographic order.
+   *
+   * @return List<String> names
+   */
+  public static List<String> names() {
+    TreeSet<String> result = new TreeSet<>(packed().keySet());
+    result.addAll(Utils.plainFilenamesIn(folder()));
+    return new ArrayList<>(result);
+  }
+
+  /**
+   * Points the branch with the given name at the commit with the given ID, creating it if needed.
+   *
+   * @param name a branch name
+   * @param id commit sha1
+   */
+  public static void update(String name, ObjectId id) {
+    Utils.writeContents(Utils.join(folder(), name), id.toString());
+    if (name.equals(headName())) {
+      state()._headId = id;
+    }
+  }
+
+  /**
+   * Returns the packed branches by name.
+   *
+   * @return TreeMap<String, ObjectId> commit ids by branch name
+   */
+  private static TreeMap<String, ObjectId> packed() {
+    Branches state = state();
+    if (state._packed == null) {
+      state._packed = new TreeMap<>();
+      if (packedFile().isFile()) {
+        for (String line : Utils.readContentsAsString(packedFile()).split("\n")) {
+          if (line.length() > Utils.UID_LENGTH) {
+            state._packed.put(
+                line.substring(Utils.UID_LENGTH + 1),
+                ObjectId.fromHex(line.substring(0, Utils.UID_LENGTH)));
+          }
+        }
+      }
+    }
+    return state._packed;
+  }
+
+  /**
+   * Writes the given packed branches to packed-refs.
+   *
+   * @param packed commit ids by branch name
+   */
+  private static void writePacked(TreeMap<String, ObjectId> packed) {
+    StringBuilder out = new StringBuilder();
+    for (Map.Entry<String, ObjectId> e : packed.entrySet()) {
+      out.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+    }
+    Utils.writeContents(packedFile(), out.toString());
+    state()._packed = packed;
+  }
+
+  /** Moves every branch file into packed-refs. */
+  public static void packRefs() {
+    TreeMap<String, ObjectId> packed = new TreeMap<>(packed());
+    List<String> loose = Utils.plainFilenamesIn(folder());
+    for (String name : loose) {
+      packed.put(name, resolve(name));
+    }
+    writePacked(packed);
+    for (String name : loose) {
+      Utils.join(folder(), name).delete();
+    }
   }
 
   /**
    * Creates a new branch with the given name, and points it at the current head node.
    *
-   * @param args {"branch", name} Input array.
+   * @param name branch name
    */
-  public static void branch(String[] args) throws IOException {
-    List<String> branchNames = Utils.plainFilenamesIn(FOLDER);
-    if (branchNames.contains(args[1])) {
-      System.out.println("A branch with that name already exists.");
-      return;
+  public static void branch(String name) throws IOException {
+    if (exists(name)) {
+      throw Utils.error("A branch with that name already exists.");
     }
-    File newBranch = Utils.join(FOLDER, args[1]);
-    newBranch.createNewFile();
-    Utils.writeContents(newBranch, Utils.readContents(HEAD));
+    update(name, headId());
   }
 
   /**
    * Deletes the branch with the given name.
    *
-   * @param args {'rm-branch', name}
+   * @param name branch name
    */
-  public static void removeBranch(String[] args) {
-    List<String> branchNames = Utils.plainFilenamesIn(FOLDER);
-    if (!branchNames.contains(args[1])) {
-      System.out.println("A branch with that name does not exist.");
-    } else if (HEAD.getName().equals(args[1])) {
-      System.out.println("Cannot remove the current branch.");
-    } else {
-      Utils.join(FOLDER, args[1]).delete();
+  public static void removeBranch(String name) {
+    if (!exists(name)) {
+      throw Utils.error("A branch with that name does not exist.");
+    } else if (headName().equals(name)) {
+      throw Utils.error("Cannot remove the current branch.");
+    }
+    Utils.join(folder(), name).delete();
+    if (packed().containsKey(name)) {
+      TreeMap<String, ObjectId> packed = new TreeMap<>(packed());
+      packed.remove(name);
+      writePacked(packed);
     }
   }
 
@@ -82,58 +238,47 @@ public class Branches implements Serializable {
    * (HEAD).
    *
    * <p>Any files that are tracked in the current branch but are not present in the checked-out
-   * branch are deleted.
+   * branch are deleted. Only the files that differ between the two trees are looked at.
    *
    * <p>The staging area is cleared, unless the checked-out branch is the current branch
    *
    * @param branchName name of the branch
    */
   public static void checkoutBranch(String branchName) throws IOException {
-    List<String> branches = Utils.plainFilenamesIn(FOLDER);
-    if (!branches.contains(branchName)) {
-      System.out.println("No such branch exists.");
-    } else if (HEAD.getName().equals(branchName)) {
-      System.out.println("No need to checkout the current branch.");
-    } else {
-      Commit givenC = Utils.readObject(Utils.join(FOLDER, branchName), Commit.class);
-      TreeMap<String, String> givenFiles = givenC.getFiles();
-      TreeMap<String, String> headFiles = headCommit().getFiles();
-      if (Command.untracked(givenFiles)) {
-        return;
-      }
-      for (String name : givenFiles.keySet()) {
-        Command.checkoutFile(givenC, name);
-      }
-      Utils.writeContents(Command.HEAD, branchName);
-      for (String name : headFiles.keySet()) {
-        if (headFiles.containsKey(name) && !givenFiles.containsKey(name)) {
-          Utils.join(Command.CWD, name).delete();
-        }
-      }
-      Stage.clearStage();
+    if (!exists(branchName)) {
+      throw Utils.error("No such branch exists.");
+    } else if (headName().equals(branchName)) {
+      throw Utils.error("No need to checkout the current branch.");
     }
+    ObjectId given = resolve(branchName);
+    TreeMap<String, ObjectId> before = new TreeMap<>();
+    TreeMap<String, ObjectId> after = new TreeMap<>();
+    Commit.changes(headId(), given, before, after);
+    Command.checkUntracked(before, after);
+    Command.checkoutFiles(given, before, after, new TreeMap<>());
+    Utils.writeContents(Command.headFile(), branchName);
+    state()._headName = branchName;
+    state()._headId = null;
+    Stage.clearStage();
   }
 
   /**
-   * Checks for merge errors. Returns true if there are some.
+   * Throws the error that keeps the given branch from being merged, if there is one.
    *
    * @param branchName the name of branch to check in merge
-   * @return boolean whether there are errors
    */
-  public static boolean mergeErrors(String branchName) {
-    if (Stage.ADD.listFiles().length != 0 || Stage.RM.listFiles().length != 0) {
-      System.out.println("You have uncommitted changes.");
-      return true;
-    } else if (!Utils.join(FOLDER, branchName).exists()) {
-      System.out.println("A branch with that name does not exist.");
-      return true;
-    } else if (branchName.equals(HEAD.getName())) {
-      System.out.println("Cannot merge a branch with itself.");
-      return true;
-    } else {
-      return Command.untracked(
-          Utils.readObject(Utils.join(FOLDER, branchName), Commit.class).getFiles());
+  public static void checkMerge(String branchName) {
+    if (Stage.hasChanges()) {
+      throw Utils.error("You have uncommitted changes.");
+    } else if (!exists(branchName)) {
+      throw Utils.error("A branch with that name does not exist.");
+    } else if (branchName.equals(headName())) {
+      throw Utils.error("Cannot merge a branch with itself.");
     }
+    TreeMap<String, ObjectId> before = new TreeMap<>();
+    TreeMap<String, ObjectId> after = new TreeMap<>();
+    Commit.changes(headId(), resolve(branchName), before, after);
+    Command.checkUntracked(before, after);
   }
 
   /**
@@ -147,9 +292,9 @@ public class Branches implements Serializable {
    * @return true iff there is a conflict
    */
   public static boolean existConflict(
-      TreeMap<String, String> split,
-      TreeMap<String, String> head,
-      TreeMap<String, String> given,
+      TreeMap<String, ObjectId> split,
+      TreeMap<String, ObjectId> head,
+      TreeMap<String, ObjectId> given,
       String name) {
     return ((!split.containsKey(name)
             && head.containsKey(name)
@@ -165,127 +310,120 @@ public class Branches implements Serializable {
   }
 
   /**
-   * Merges files from the given branch into the current branch.
+   * Merges files from the given branch into the current branch. Only the files changed on either
+   * branch since the split point are looked at, found by comparing trees.
    *
-   * @param args {'merge', branch name}
+   * @param branchName name of the given branch
+   * @return Repository.MergeResult what was done
    */
-  public static void merge(String[] args) throws IOException {
-    if (mergeErrors(args[1])) {
-      return;
+  public static Repository.MergeResult merge(String branchName) throws IOException {
+    checkMerge(branchName);
+    ObjectId headId = headId();
+    ObjectId givenId = resolve(branchName);
+    Graph.position(headId);
+    Graph.position(givenId);
+    int headPos = Graph.find(headId);
+    int givenPos = Graph.find(givenId);
+    List<Integer> bases = Graph.mergeBases(headPos, givenPos);
+    if (bases.contains(givenPos)) {
+      return new Repository.MergeResult(
+          Repository.MergeResult.Outcome.ANCESTOR, headId().toString(), false);
+    } else if (bases.contains(headPos)) {
+      checkoutBranch(branchName);
+      return new Repository.MergeResult(
+          Repository.MergeResult.Outcome.FAST_FORWARD, headId().toString(), false);
     }
-    Commit latest = latestSplit(args[1]);
-    if (latest != null) {
-      TreeMap<String, String> head = headCommit().getFiles();
-      Commit givenC = Utils.readObject(Utils.join(FOLDER, args[1]), Commit.class);
-      TreeMap<String, String> given = givenC.getFiles();
-      TreeMap<String, String> split = latest.getFiles();
-      HashSet<String> files = new HashSet<>(split.keySet());
-      files.addAll(head.keySet());
-      files.addAll(given.keySet());
-      boolean emerge = false;
-      for (String name : files) {
-        boolean conflict = false;
-        if (given.containsKey(name)) {
-          if (existConflict(split, head, given, name)) {
-            conflict = true;
-          } else if (!given.get(name).equals(split.get(name))) {
-            Command.checkoutFile(givenC, name);
-            Stage.add(new String[] {"add", name});
-          }
-        } else if (split.containsKey(name)) {
-          if (head.containsKey(name) && !split.get(name).equals(head.get(name))) {
-            conflict = true;
-          } else if (split.get(name).equals(head.get(name))) {
-            Utils.join(Command.CWD, name).delete();
-            Stage.rm(new String[] {"rm", name});
-          }
+    Commit latest = latestSplit(bases);
+    TreeMap<String, ObjectId> head = headCommit().getFiles();
+    Commit givenC = Commit.read(resolve(branchName));
+    TreeMap<String, ObjectId> given = givenC.getFiles();
+    TreeMap<String, ObjectId> split = latest.getFiles();
+    TreeMap<String, ObjectId> before = new TreeMap<>();
+    TreeMap<String, ObjectId> after = new TreeMap<>();
+    Commit.changes(latest, headCommit(), before, after);
+    Commit.changes(latest, givenC, before, after);
+    TreeSet<String> files = new TreeSet<>(before.keySet());
+    files.addAll(after.keySet());
+    boolean emerge = false;
+    for (String name : files) {
+      boolean conflict = false;
+      if (given.containsKey(name)) {
+        if (existConflict(split, head, given, name)) {
+          conflict = true;
+        } else if (!given.get(name).equals(split.get(name))) {
+          Command.checkoutFile(givenC, name);
+          Stage.add(name);
         }
-        if (conflict) {
-          Formatter out = new Formatter();
-          out.format("<<<<<<< HEAD\n");
-          if (head.containsKey(name)) {
-            out.format(Utils.readContentsAsString(Utils.join(Blobs.FOLDER, head.get(name))));
-          }
-          out.format("=======\n");
-          if (given.containsKey(name)) {
-            out.format(Utils.readContentsAsString(Utils.join(Blobs.FOLDER, given.get(name))));
-          }
-          out.format(">>>>>>>\n");
-          Utils.writeContents(Utils.join(Command.CWD, name), out.toString());
-          Stage.add(new String[] {"add", name});
-          emerge = true;
+      } else if (split.containsKey(name)) {
+        if (head.containsKey(name) && !split.get(name).equals(head.get(name))) {
+          conflict = true;
+        } else if (split.get(name).equals(head.get(name))) {
+          Command.deleteFile(name);
+          Stage.rm(name);
         }
       }
-      Formatter mergemsg = new Formatter();
-      mergemsg.format("Merged %1$s into %2$s.", args[1], HEAD.getName());
-      Commit.commit(
-          new String[] {
-            "commit",
-            mergemsg.toString(),
-            Utils.sha1(Utils.readContents(Utils.join(FOLDER, args[1])))
-          });
-      if (emerge) {
-        System.out.println("Encountered a merge conflict.");
+      if (conflict) {
+        if (Merge.merge(name, split.get(name), head.get(name), given.get(name))) {
+          emerge = true;
+        }
+        Stage.add(name);
       }
     }
+    Formatter mergemsg = new Formatter();
+    mergemsg.format("Merged %1$s into %2$s.", branchName, headName());
+    ObjectId id = Commit.commit(mergemsg.toString(), resolve(branchName));
+    return new Repository.MergeResult(Repository.MergeResult.Outcome.MERGED, id.toString(), emerge);
   }
 
   /**
-   * Finds the latest split point of the current branch with the name of the given branch.
+   * Returns the latest split point of two branches whose common ancestors, found by walking the
+   * commit graph, are at the positions BASES.
+   *
+   * <p>After criss-cross merges the branches can have several common ancestors, none better than
+   * the others. The split point is then a commit that is never written, tracking the merge of
+   * their files.
    *
-   * @param name the given branch name
+   * @param bases positions of the common ancestors in the graph
    * @return Commit the latest split commit
    */
-  public static Commit latestSplit(String name) throws IOException {
-    String currID = Branches.headId();
-    String origID = Branches.headId();
-    Commit curr = Branches.headCommit();
-    String givenID = Utils.sha1(Utils.readContents(Utils.join(FOLDER, name)));
-    Commit given = Utils.readObject(Utils.join(Commit.FOLDER, givenID), Commit.class);
-    HashSet<String> givenAncestors = getAncestors(given);
-    while (true) {
-      if (currID.equals(givenID)) {
-        System.out.println("Given branch is an ancestor " + "of the current branch.");
-        break;
-      }
-      if (givenAncestors.contains(origID)) {
-        System.out.println("Current branch fast-forwarded.");
-        checkoutBranch(name);
-        break;
-      }
-      String parent = curr.getParent();
-      String mparent = curr.getMparent();
-      if (givenAncestors.contains(parent)) {
-        return Utils.readObject(Utils.join(Commit.FOLDER, parent), Commit.class);
-      } else if (curr.getMparent() != null) {
-        return Utils.readObject(Utils.join(Commit.FOLDER, mparent), Commit.class);
-      }
-      curr = Utils.readObject(Utils.join(Commit.FOLDER, curr.getParent()), Commit.class);
-      currID = Utils.sha1(Utils.readContents(Utils.join(Commit.FOLDER, curr.getParent())));
+  public static Commit latestSplit(List<Integer> bases) {
+    if (bases.size() == 1) {
+      return Commit.read(Graph.id(bases.get(0)));
     }
-    return null;
+    Commit virtual = new Commit("merged common ancestors", null, null, false);
+    virtual.getFiles().putAll(splitFiles(bases));
+    return virtual;
   }
 
   /**
-   * Returns a collection of all the ancestors of a given commit.
+   * Returns the files of the merge of the commits at the positions BASES, each merged in turn
+   * with the first against their own split point. Where they disagree, the first one wins.
    *
-   * @param c the given commit
-   * @return HashSet<String> the ancestors of that commit
+   * @param bases positions of commits in the graph
+   * @return TreeMap<String, ObjectId> tracked files
    */
-  public static HashSet<String> getAncestors(Commit c) {
-    HashSet<String> result = new HashSet<>();
-    if (c.getParent() == null && c.getMparent() == null) {
-      return result;
-    }
-    if (c.getParent() != null) {
-      result.add(c.getParent());
-      result.addAll(
-          getAncestors(Utils.readObject(Utils.join(Commit.FOLDER, c.getParent()), Commit.class)));
-    }
-    if (c.getMparent() != null) {
-      result.add(c.getMparent());
-      result.addAll(
-          getAncestors(Utils.readObject(Utils.join(Commit.FOLDER, c.getMparent()), Commit.class)));
+  private static TreeMap<String, ObjectId> splitFiles(List<Integer> bases) {
+    int first = bases.get(0);
+    TreeMap<String, ObjectId> result = new TreeMap<>(Commit.read(Graph.id(first)).getFiles());
+    for (int other : bases.subList(1, bases.size())) {
+      TreeMap<String, ObjectId> theirs = Commit.read(Graph.id(other)).getFiles();
+      List<Integer> below = Graph.mergeBases(first, other);
+      TreeMap<String, ObjectId> split = new TreeMap<>();
+      if (below.size() == 1) {
+        split = Commit.read(Graph.id(below.get(0))).getFiles();
+      } else if (!below.isEmpty()) {
+        split = splitFiles(below);
+      }
+      HashSet<String> files = new HashSet<>(result.keySet());
+      files.addAll(theirs.keySet());
+      for (String file : files) {
+        ObjectId ours = result.get(file);
+        if (Objects.equals(split.get(file), ours) && theirs.containsKey(file)) {
+          result.put(file, theirs.get(file));
+        } else if (Objects.equals(split.get(file), ours)) {
+          result.remove(file);
+        }
+      }
     }
     return result;
   }
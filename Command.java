@@ -1,14 +1,27 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.format.TextStyle;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Formatter;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Class organizing commands to be called in other classes. Serves as the central hub class pathway.
@@ -18,192 +31,265 @@ import java.util.TreeMap;
  */
 public class Command {
 
-  /** Current Working Directory. */
-  static final File CWD = new File(System.getProperty("user.dir"));
+  /** Format of the dates shown by the logs, in the time zone of this process. */
+  private static final DateTimeFormatter DATE =
+      DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss u", Locale.ENGLISH)
+          .withZone(ZoneId.systemDefault());
 
-  /** Main metadata folder. */
-  static final File GITLET_FOLDER = Utils.join(CWD, ".gitlet");
+  /**
+   * Returns the working directory of the current repository.
+   *
+   * @return File
+   */
+  static File cwd() {
+    return Repository.current().root();
+  }
 
-  /** File containing information (literal name) about the head branch. */
-  static final File HEAD = Utils.join(GITLET_FOLDER, "HEAD");
+  /**
+   * Returns the metadata folder of the current repository.
+   *
+   * @return File
+   */
+  static File gitletFolder() {
+    return Repository.current().gitletFolder();
+  }
+
+  /**
+   * Returns the file holding the name of the head branch.
+   *
+   * @return File
+   */
+  static File headFile() {
+    return Utils.join(gitletFolder(), "HEAD");
+  }
 
   /**
    * Creates a new Gitlet VCS in the CWD. Initializes one commit that contains no files with the
    * message "initial commit" in Epoch time. Sets up all persistence (branches, directories, etc.)
    *
-   * @param args arguments
    * @throws IOException when creating abnormal file
    */
-  public static void init(String[] args) throws IOException {
-    GITLET_FOLDER.mkdirs();
-    HEAD.createNewFile();
-    Utils.writeContents(HEAD, "main");
-    Commit.FOLDER.mkdirs();
-    Branches.FOLDER.mkdir();
-    Stage.FOLDER.mkdirs();
-    Blobs.FOLDER.mkdirs();
-    Stage.ADD.mkdirs();
-    Stage.RM.mkdirs();
+  public static void init() throws IOException {
+    gitletFolder().mkdirs();
+    headFile().createNewFile();
+    Utils.writeContents(headFile(), "main");
+    Commit.folder().mkdirs();
+    Branches.folder().mkdir();
+    Stage.folder().mkdirs();
+    Blobs.folder().mkdirs();
+    Tree.folder().mkdir();
+    Messages.init();
     Commit initCommit = new Commit("initial commit", null, null, false);
-    Branches.MAIN.createNewFile();
-    Utils.writeObject(Branches.MAIN, initCommit);
-    File initFile = Utils.join(Commit.FOLDER, Branches.headId());
-    initFile.createNewFile();
-    Utils.writeObject(initFile, initCommit);
+    Branches.update("main", Commit.write(initCommit));
   }
 
   /**
-   * Prints out the metadata of all Commit objects starting from the current one (head), going
-   * backwards until there are no more. Set to be in PST timezone.
+   * Prints out the metadata of the commits in the history of the head commit of REPO, newest
+   * first, following first parents. Set to be in PST timezone. ARGS may limit them to the first
+   * COUNT with -n COUNT, to those made from or until a date with --since and --until, and to those
+   * that changed a file with -- FILE. Commits are written as they are read.
    *
-   * <p>If a global log is called, it only prints out the log info of the given String ID.
-   *
-   * @param id A commit sha1
-   * @param args arguments
-   * @param global boolean indicating if this is a global log
+   * @param repo the repository
+   * @param args {'log', options...}
+   * @param stdout where to print
+   * @throws IOException on write errors
    */
-  public static void log(String id, boolean global, String[] args) {
-    Formatter info = new Formatter();
-    Commit curr = Utils.readObject(Utils.join(Commit.FOLDER, id), Commit.class);
-    while (true) {
-      info.format("===\ncommit %s\n", id);
-      if (curr.isMerge()) {
-        info.format(
-            "Merge: %1$s %2$s\n",
-            curr.getParent().substring(0, 7), curr.getMparent().substring(0, 7));
+  public static void log(Repository repo, String[] args, PrintStream stdout) throws IOException {
+    int limit = -1;
+    Instant since = null;
+    Instant until = null;
+    String path = null;
+    for (int i = 1; i < args.length; i += 2) {
+      if (i + 1 >= args.length) {
+        throw Utils.error("Incorrect operands.");
       }
-      ZonedDateTime zdt = curr.getTimestamp().atZone(ZoneId.systemDefault());
-      int date = zdt.getDayOfMonth();
-      int yr = zdt.getYear();
-      String pst = "-0800";
-      String month = zdt.getMonth().getDisplayName(TextStyle.SHORT, Locale.ENGLISH);
-      String day = zdt.getDayOfWeek().getDisplayName(TextStyle.SHORT, Locale.ENGLISH);
-      String time = timeform(zdt.getHour(), zdt.getMinute(), zdt.getSecond());
-      info.format(
-          "Date: %1$s %2$s %3$d %4$s %5$d %6$s\n%7$s\n\n",
-          day, month, date, time, yr, pst, curr.getMessage());
-      if (global) {
-        break;
-      } else {
-        id = curr.getParent();
-        if (id == null) {
+      switch (args[i]) {
+        case "-n":
+          try {
+            limit = Integer.parseInt(args[i + 1]);
+          } catch (NumberFormatException excp) {
+            throw Utils.error("Incorrect operands.");
+          }
           break;
-        }
-        curr = Utils.readObject(Utils.join(Commit.FOLDER, curr.getParent()), Commit.class);
+        case "--since":
+          since = date(args[i + 1], false);
+          break;
+        case "--until":
+          until = date(args[i + 1], true);
+          break;
+        case "--":
+          path = args[i + 1];
+          break;
+        default:
+          throw Utils.error("Incorrect operands.");
       }
     }
-    System.out.println(info);
+    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(stdout), 1 << 16);
+    StringBuilder info = new StringBuilder();
+    Iterator<Repository.LogEntry> entries = repo.log(limit, since, until, path);
+    while (entries.hasNext()) {
+      info.setLength(0);
+      format(info, entries.next());
+      out.append(info);
+    }
+    out.write('\n');
+    out.flush();
   }
 
   /**
-   * Displays information about all commits ever made in a random order.
+   * Returns the time given by S: a date, a date and time (e.g. 2024-01-31T12:00) in the time zone
+   * of this process, or an instant in UTC (e.g. 2024-01-31T12:00:00Z). A date means its start, or
+   * its end if END.
    *
-   * @param args arguments
+   * @param s a date
+   * @param end whether a date means its end
+   * @return Instant
    */
-  public static void globalLog(String[] args) {
-    List<String> commitIds = Utils.plainFilenamesIn(Commit.FOLDER);
-    for (String id : commitIds) {
-      log(id, true, args);
+  private static Instant date(String s, boolean end) {
+    ZoneId zone = ZoneId.systemDefault();
+    try {
+      if (s.endsWith("Z")) {
+        return Instant.parse(s);
+      } else if (s.contains("T")) {
+        return LocalDateTime.parse(s).atZone(zone).toInstant();
+      } else if (end) {
+        return LocalDate.parse(s).plusDays(1).atStartOfDay(zone).toInstant().minusNanos(1);
+      } else {
+        return LocalDate.parse(s).atStartOfDay(zone).toInstant();
+      }
+    } catch (DateTimeParseException excp) {
+      throw Utils.error("Incorrect operands.");
     }
   }
 
   /**
-   * Returns a string of the current time in the form XX:YY:ZZ. Each paramater is concatenated with
-   * a 0 iff it X/Y/Z is < 10.
+   * Displays information about all commits ever made, each as a log of its own, as ENTRIES
+   * returns them. The records are written through one buffered writer as they come, so that
+   * none of them is kept.
    *
-   * @param x hour
-   * @param y min
-   * @param z sec
+   * @param entries commits
+   * @param stdout where to print
+   * @throws IOException on write errors
    */
-  public static String timeform(int x, int y, int z) {
-    Formatter time = new Formatter();
-    String[] times = new String[] {Integer.toString(x), Integer.toString(y), Integer.toString(z)};
-    for (int i = 0; i < times.length; i++) {
-      if (Integer.parseInt(times[i]) < 10) {
-        times[i] = "0" + times[i];
-      }
+  public static void globalLog(Iterator<Repository.LogEntry> entries, PrintStream stdout)
+      throws IOException {
+    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(stdout), 1 << 16);
+    StringBuilder info = new StringBuilder();
+    while (entries.hasNext()) {
+      info.setLength(0);
+      format(info, entries.next());
+      info.append('\n');
+      out.append(info);
+    }
+    out.flush();
+  }
+
+  /**
+   * Appends the metadata of the commit CURR to INFO.
+   *
+   * @param info destination
+   * @param curr a commit
+   */
+  private static void format(StringBuilder info, Repository.LogEntry curr) {
+    info.append("===\ncommit ").append(curr.getId()).append('\n');
+    if (curr.getMparent() != null) {
+      info.append("Merge: ")
+          .append(curr.getParent(), 0, 7)
+          .append(' ')
+          .append(curr.getMparent(), 0, 7)
+          .append('\n');
     }
-    time.format("%1$s:%2$s:%3$s", times[0], times[1], times[2]);
-    return time.toString();
+    info.append("Date: ");
+    DATE.formatTo(curr.getTimestamp(), info);
+    info.append(" -0800\n").append(curr.getMessage()).append("\n\n");
+  }
+
+  /**
+   * Prints, as a unified diff, the changes in the working directory to the staged files, with
+   * --staged the changes staged for the next commit, or with two commit ids the changes from the
+   * first commit to the second. Hunks are written as they are found.
+   *
+   * @param repo the repository
+   * @param args {'diff'}, {'diff', '--staged'} or {'diff', commit id, commit id}
+   * @param stdout where to print
+   * @throws IOException on write errors
+   */
+  public static void diff(Repository repo, String[] args, PrintStream stdout) throws IOException {
+    BufferedOutputStream out = new BufferedOutputStream(stdout, 1 << 16);
+    if (args.length == 1) {
+      repo.diff(out);
+    } else if (args.length == 2 && (args[1].equals("--staged") || args[1].equals("--cached"))) {
+      repo.diffStaged(out);
+    } else if (args.length == 3) {
+      repo.diff(args[1], args[2], out);
+    } else {
+      throw Utils.error("Incorrect operands.");
+    }
+    out.flush();
   }
 
   /**
    * Displays what branches currently exist, and marks the current branch with a *. Also displays
    * what files have been staged for addition, removal, were modified (but not staged) and untracked
    * files.
+   *
+   * @param status the status of the repository
+   * @param stdout where to print
    */
-  public static void status() {
+  public static void status(Repository.Status status, PrintStream stdout) {
     Formatter out = new Formatter();
-    List<String> branches = Utils.plainFilenamesIn(Branches.FOLDER);
-    String head = Utils.readContentsAsString(Command.HEAD);
+    String head = status.getHead();
     out.format("=== Branches ===\n*%1$s\n", head);
-    for (String name : branches) {
+    for (String name : status.getBranches()) {
       if (!name.equals(head)) {
         out.format(name + "\n");
       }
     }
     out.format("\n=== Staged Files ===\n");
-    List<String> staged = Utils.plainFilenamesIn(Stage.ADD);
-    for (String name : staged) {
+    for (String name : status.getStaged()) {
       out.format(name + "\n");
     }
     out.format("\n=== Removed Files ===\n");
-    List<String> removed = Utils.plainFilenamesIn(Stage.RM);
-    for (String name : removed) {
+    for (String name : status.getRemoved()) {
       out.format(name + "\n");
     }
     out.format("\n=== Modifications Not Staged For Commit ===\n");
-    List<String> modified = Utils.plainFilenamesIn(CWD);
-    TreeMap<String, String> tracked = Branches.headCommit().getFiles();
-    for (String name : modified) {
-      File curr = Utils.join(CWD, name);
-      if (tracked.containsKey(name)
-              && (!tracked.get(name).equals(Utils.sha1(Utils.readContents(curr))))
-              && (!staged.contains(name))
-              && !removed.contains(name)
-          || (staged.contains(name)
-              && !Utils.sha1(Utils.readContents(curr))
-                  .equals(Utils.sha1(Utils.readContents(Utils.join(Stage.ADD, name)))))) {
-        out.format(name + " (modified)\n");
-      }
+    for (String name : status.getModified()) {
+      out.format(name + " (modified)\n");
     }
-    for (String name : tracked.keySet()) {
-      if (!removed.contains(name) && !Utils.join(CWD, name).exists()) {
-        out.format(name + " (deleted)\n");
-      }
+    for (String name : status.getDeleted()) {
+      out.format(name + " (deleted)\n");
     }
     out.format("\n=== Untracked Files ===\n");
-    for (String name : modified) {
-      if (!tracked.containsKey(name) && !Utils.join(Stage.ADD, name).exists()) {
-        out.format(name + "\n");
-      }
+    for (String name : status.getUntracked()) {
+      out.format(name + "\n");
     }
     out.format("\n");
-    System.out.println(out);
+    stdout.println(out);
   }
 
   /**
    * A method that calls a particular checkout depending on the length of its arguments ARGS.
    *
+   * @param repo the repository
    * @param args String[]
    * @throws IOException in event of abnormal files
    */
-  public static void checkout(String[] args) throws IOException {
+  public static void checkout(Repository repo, String[] args) throws IOException {
     if (args.length == 3) {
       if (!args[1].equals("--")) {
-        System.out.println("Incorrect operands.");
-        return;
+        throw Utils.error("Incorrect operands.");
       }
-      Commit headCommit = Branches.headCommit();
-      Command.checkoutFile(headCommit, args[2]);
+      repo.checkoutFile(args[2]);
     } else if (args.length == 4) {
       if (!args[2].equals("--")) {
-        System.out.println("Incorrect operands.");
-        return;
+        throw Utils.error("Incorrect operands.");
       }
-      Commit.checkoutId(args[1], args[3], false);
+      repo.checkoutFile(args[1], args[3]);
+    } else if (args.length == 2) {
+      repo.checkout(args[1]);
     } else {
-      Branches.checkoutBranch(args[1]);
+      throw Utils.error("Incorrect operands.");
     }
   }
 
@@ -217,35 +303,123 @@ public class Command {
    */
   public static void checkoutFile(Commit c, String filename) throws IOException {
     if (!c.getFiles().containsKey(filename)) {
-      System.out.println("File does not exist in that commit.");
-    } else {
-      File cwdVer = Utils.join(CWD, filename);
-      String sha = c.getFiles().get(filename);
-      File desired = Utils.join(Blobs.FOLDER, sha);
-      cwdVer.createNewFile();
-      Utils.writeContents(cwdVer, Utils.readContents(desired));
+      throw Utils.error("File does not exist in that commit.");
+    }
+    writeFile(filename, c.getFiles().get(filename));
+  }
+
+  /**
+   * Makes the working directory hold the files of the commit TO in place of those of the head,
+   * given BEFORE and AFTER, the files that differ between the two as found by Commit.changes, and
+   * STAGED, the index entries that differ from the head: the sha1 of their staged contents by name,
+   * or null for a removal. Only these files are looked at. A file being left that TO does not track
+   * is deleted, and a file of TO is written only if the working directory does not already hold
+   * its contents, which for a file whose index entry still matches takes no more than a stat. The
+   * files to write are then written in parallel, each straight from its stored bytes.
+   *
+   * @param to the sha1 of the commit being checked out
+   * @param before files of the head that differ from TO
+   * @param after files of TO that differ from the head
+   * @param staged staged changes being left
+   * @throws IOException in event of abnormal files
+   */
+  public static void checkoutFiles(
+      ObjectId to,
+      TreeMap<String, ObjectId> before,
+      TreeMap<String, ObjectId> after,
+      TreeMap<String, ObjectId> staged)
+      throws IOException {
+    TreeSet<String> names = new TreeSet<>(before.keySet());
+    names.addAll(after.keySet());
+    names.addAll(staged.keySet());
+    List<Map.Entry<String, ObjectId>> changed = new ArrayList<>();
+    for (String name : names) {
+      ObjectId id =
+          after.containsKey(name) || before.containsKey(name)
+              ? after.get(name)
+              : Commit.fileId(to, name);
+      boolean left = staged.containsKey(name) ? staged.get(name) != null : before.containsKey(name);
+      if (id == null) {
+        if (left) {
+          deleteFile(name);
+        }
+      } else if (!id.equals(Stage.workingId(name))) {
+        changed.add(new AbstractMap.SimpleImmutableEntry<>(name, id));
+      }
+    }
+    Repository.current()
+        .parallel(
+            changed,
+            f -> {
+              Blobs.writeTo(f.getValue().toString(), workingFile(f.getKey()));
+              return f;
+            });
+    for (Map.Entry<String, ObjectId> f : changed) {
+      Stage.written(f.getKey(), f.getValue());
+    }
+  }
+
+  /**
+   * Overwrites the working file NAME with the contents of the blob SHA.
+   *
+   * @param name file name
+   * @param sha sha1 of a blob
+   * @throws IOException in event of abnormal files
+   */
+  private static void writeFile(String name, ObjectId sha) throws IOException {
+    Blobs.writeTo(sha.toString(), workingFile(name));
+    Stage.written(name, sha);
+  }
+
+  /**
+   * Returns the working file NAME, first creating the directories it is in if need be.
+   *
+   * @param name file name
+   * @return File
+   */
+  static File workingFile(String name) {
+    File result = Utils.join(cwd(), name);
+    if (name.indexOf('/') >= 0) {
+      result.getParentFile().mkdirs();
+    }
+    return result;
+  }
+
+  /**
+   * Deletes the working file NAME, then any of the directories it was in that are left empty.
+   *
+   * @param name file name
+   */
+  static void deleteFile(String name) {
+    File f = Utils.join(cwd(), name);
+    f.delete();
+    for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+      f = f.getParentFile();
+      if (!f.delete()) {
+        return;
+      }
     }
   }
 
   /**
-   * Checks if there is an untracked file in the CWD compared to another tracked file map.
+   * Throws an error if there is an untracked file in the CWD that would be overwritten by checking
+   * out another commit, given BEFORE and AFTER, the files that differ between the head and that
+   * commit as found by Commit.changes. A file the head does not track is in AFTER but not in
+   * BEFORE, so no other file is looked at.
    *
-   * @param givenFiles tracked files
-   * @return boolean
+   * @param before files of the head that differ
+   * @param after files of the other commit that differ
    */
-  public static boolean untracked(TreeMap<String, String> givenFiles) {
-    List<String> cwdNames = Utils.plainFilenamesIn(CWD);
-    TreeMap<String, String> headFiles = Branches.headCommit().getFiles();
-    for (String name : cwdNames) {
-      File curr = Utils.join(Command.CWD, name);
-      if (!headFiles.containsKey(name)
-          && givenFiles.containsKey(name)
-          && (!givenFiles.get(name).equals(Utils.sha1(Utils.readContents(curr))))) {
-        System.out.println(
+  public static void checkUntracked(
+      TreeMap<String, ObjectId> before, TreeMap<String, ObjectId> after) {
+    for (Map.Entry<String, ObjectId> file : after.entrySet()) {
+      File curr = Utils.join(Command.cwd(), file.getKey());
+      if (!before.containsKey(file.getKey())
+          && curr.isFile()
+          && !file.getValue().equals(ObjectId.fromHex(Utils.sha1(curr)))) {
+        throw Utils.error(
             "There is an untracked file in the way; delete it, or add and commit it first.");
-        return true;
       }
     }
-    return false;
   }
 }
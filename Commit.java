@@ -1,35 +1,63 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.time.Clock;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * CLass representing commit related actions.
  *
+ * <p>Commits are stored in a compact binary encoding (see encode): a magic number and version,
+ * then the message, timestamp and parents, then the id of the Tree of the tracked files. The id of
+ * a commit is the SHA1 of its encoding. Commits written by older versions, which list their
+ * tracked files by name themselves or are serialized Java objects, are still read, and keep their
+ * ids.
+ *
  * @author Randy Nguyen
  */
 public class Commit implements Serializable {
 
-  /** File containing the saved commit objects. */
-  static final File FOLDER = Utils.join(Command.GITLET_FOLDER, "commits");
+  /** Pinned so that commits serialized before this class last changed can still be read. */
+  private static final long serialVersionUID = -3665640171929779761L;
+
+  /**
+   * Returns the folder of the current repository holding its commits.
+   *
+   * @return File
+   */
+  static File folder() {
+    return Utils.join(Command.gitletFolder(), "commits");
+  }
 
   /** The message provided with the commit. */
-  private final String _message;
+  private String _message;
 
   /** The timestamp provided with the commit. */
-  private final Instant _timestamp;
+  private Instant _timestamp;
 
   /** The parent of this commit represented as its SHA1. */
-  private final String _parent;
+  private ObjectId _parent;
 
   /** The merged parent of this commit represented as its SHA1. */
-  private String _mparent;
+  private ObjectId _mparent;
 
   /** Denotes whether this commit is the result of a merge. */
   private boolean _merge;
@@ -37,11 +65,66 @@ public class Commit implements Serializable {
   /**
    * A TreeMap with the key being the File abstract name and value being the SHA1 of its contents.
    */
-  private final TreeMap<String, String> _trackedFiles;
+  private TreeMap<String, ObjectId> _trackedFiles;
+
+  /** The id of the tree of the tracked files, or null if this commit lists them itself. */
+  private ObjectId _tree;
+
+  /**
+   * The fields of commits serialized by older versions, which held ids as hexadecimal Strings.
+   * They are converted by readObject.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("_message", String.class),
+    new ObjectStreamField("_timestamp", Instant.class),
+    new ObjectStreamField("_parent", String.class),
+    new ObjectStreamField("_mparent", String.class),
+    new ObjectStreamField("_merge", boolean.class),
+    new ObjectStreamField("_trackedFiles", TreeMap.class)
+  };
 
   /** Typical long SHA-1 code length. */
   private static final int SHA = 40;
 
+  /** Leading int of every encoded commit ("GCMT"). */
+  private static final int MAGIC = 0x47434d54;
+
+  /** Version of the commit encoding. */
+  private static final int VERSION = 2;
+
+  /** Version of the commit encoding that listed the tracked files instead of a tree. */
+  private static final int LISTED = 1;
+
+  /** Leading short of every serialized Java object, as written by older versions. */
+  private static final int SERIALIZED = 0xaced;
+
+  /** Flag marking an encoded commit that has a parent. */
+  private static final int HAS_PARENT = 1;
+
+  /** Flag marking an encoded commit that has a merged parent. */
+  private static final int HAS_MPARENT = 2;
+
+  /** Flag marking an encoded commit that is the result of a merge. */
+  private static final int IS_MERGE = 4;
+
+  /** Most bytes of memory taken up by cached commits, as estimated by weight. */
+  static final long CACHE_LIMIT = 32 << 20;
+
+  /** Inflaters reused by readHeader, one per thread. */
+  private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+  /** Recently read commits by sha1, least recently used first. */
+  private static final LinkedHashMap<ObjectId, Commit> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** Total weight of the cached commits. */
+  private static long _cached;
+
+  /** Number of reads answered from the cache. */
+  private static final AtomicLong HITS = new AtomicLong();
+
+  /** Number of reads that decoded a commit. */
+  private static final AtomicLong MISSES = new AtomicLong();
+
   /**
    * Contructor for a commit object.
    *
@@ -50,7 +133,7 @@ public class Commit implements Serializable {
    * @param mparent the second parent of this commit
    * @param merge denotes whether if this commit is from a merge
    */
-  public Commit(String message, String parent, String mparent, boolean merge) {
+  public Commit(String message, ObjectId parent, ObjectId mparent, boolean merge) {
     this._message = message;
     this._parent = parent;
     this._mparent = mparent;
@@ -63,135 +146,477 @@ public class Commit implements Serializable {
     }
   }
 
+  /**
+   * Constructor for a decoded commit object, taking every field as stored.
+   *
+   * @param message given user message
+   * @param timestamp when the commit was made
+   * @param parent sha1 of the parent of this commit
+   * @param mparent the second parent of this commit
+   * @param merge denotes whether if this commit is from a merge
+   * @param files the tracked files
+   * @param tree sha1 of the tree of the tracked files, or null
+   */
+  private Commit(
+      String message,
+      Instant timestamp,
+      ObjectId parent,
+      ObjectId mparent,
+      boolean merge,
+      TreeMap<String, ObjectId> files,
+      ObjectId tree) {
+    this._message = message;
+    this._timestamp = timestamp;
+    this._parent = parent;
+    this._mparent = mparent;
+    this._merge = merge;
+    this._trackedFiles = files;
+    this._tree = tree;
+  }
+
   /**
    * Creates a new Commit object with its parent being the Commit of the head branch. Then it adds
-   * all the files being Staged, replacing the ones that its parent tracked. Clears the staging
-   * area.
+   * all the files being Staged, replacing the ones that its parent tracked. Their contents were
+   * stored when they were staged, so no file is read. Only the trees of the directories holding
+   * staged files are written. Clears the staging area.
    *
-   * <p>The head branch now points to this new Commit object.
+   * <p>The head branch now points to this new Commit object, which is written once.
    *
    * <p>Untracks anything staged for removal that was tracked by its parent.
    *
-   * @param args message
+   * @param message commit message
+   * @param mparent the merged parent, or null if this is not a merge
+   * @return ObjectId the id of the new commit
    * @throws IOException for abnormal files
    */
-  public static void commit(String[] args) throws IOException {
-    List<String> stageNames = Utils.plainFilenamesIn(Stage.ADD);
-    List<String> rmNames = Utils.plainFilenamesIn(Stage.RM);
-    if (stageNames.size() > 0 || rmNames.size() > 0 || args.length > 2) {
-      Commit curr = new Commit(args[1], Branches.headId(), null, false);
-      if (args.length > 2) {
-        curr = new Commit(args[1], Branches.headId(), args[2], true);
-      }
-      TreeMap<String, String> parentFiles =
-          Utils.readObject(Utils.join(Commit.FOLDER, curr.getParent()), Commit.class).getFiles();
-      Set<String> names = parentFiles.keySet();
-      for (String name : names) {
-        if (!rmNames.contains(name)) {
-          curr.getFiles().put(name, parentFiles.get(name));
-        } else {
-          File r = Utils.join(Command.CWD, name);
-          r.delete();
-        }
-      }
-      TreeMap<String, String> stageFiles = new TreeMap<>();
-      for (String name : stageNames) {
-        File f = Utils.join(Stage.ADD, name);
-        String sha = Utils.sha1(Utils.readContents(f));
-        stageFiles.put(name, sha);
-        File copy = Utils.join(Blobs.FOLDER, sha);
-        Utils.writeContents(copy, Utils.readContents(f));
-        copy.createNewFile();
+  public static ObjectId commit(String message, ObjectId mparent) throws IOException {
+    if (message.length() <= 0) {
+      throw Utils.error("Please enter a commit message.");
+    } else if (!Stage.hasChanges() && mparent == null) {
+      throw Utils.error("No changes added to the commit.");
+    }
+    Commit curr = new Commit(message, Branches.headId(), mparent, mparent != null);
+    ObjectId base = Branches.headCommit()._tree;
+    TreeMap<String, ObjectId> changes = new TreeMap<>();
+    for (String name : Stage.removed()) {
+      Command.deleteFile(name);
+      changes.put(name, null);
+    }
+    for (String name : Stage.staged()) {
+      changes.put(name, Stage.stagedId(name));
+    }
+    curr.getFiles().putAll(Stage.snapshot());
+    curr._tree = Tree.write(base, base == null ? curr.getFiles() : changes);
+    ObjectId id = write(curr);
+    Branches.update(Branches.headName(), id);
+    Stage.clearStage();
+    return id;
+  }
+
+  /**
+   * Returns the full SHA1 of the commit whose id is, or starts with, ID. Abbreviated ids are
+   * looked up by binary search in the pack indexes and by name among the loose commits.
+   *
+   * @param id a commit sha1, possibly abbreviated
+   * @return ObjectId the full sha1
+   */
+  public static ObjectId resolve(String id) {
+    if (id.length() >= SHA) {
+      if (id.length() > SHA || !Pack.contains(folder(), id)) {
+        throw Utils.error("No commit with that id exists.");
       }
-      curr.getFiles().putAll(stageFiles);
-      Utils.writeObject(Branches.HEAD, curr);
-      File snap = Utils.join(FOLDER, Branches.headId());
-      Utils.writeObject(snap, curr);
-      snap.createNewFile();
-      Stage.clearStage();
-    } else {
-      System.out.println("No changes added to the commit.");
+      return ObjectId.fromHex(id);
+    }
+    List<String> matches = Pack.matching(folder(), id.toLowerCase(), 2);
+    if (matches.isEmpty()) {
+      throw Utils.error("No commit with that id exists.");
+    } else if (matches.size() > 1) {
+      throw Utils.error("More than one commit with that id exists.");
     }
+    return ObjectId.fromHex(matches.get(0));
   }
 
   /**
    * Given a SHA1 ID of a commit object and the name of one of its tracked files, FILENAME,
    * overwrites the CWD version with the same filename.
    *
-   * @param id the sha1 of a commit
+   * @param abbrev the sha1 of a commit, possibly abbreviated
    * @param filename name of the tracked file
    * @param reset denoting if a reset was called
    * @throws IOException if the Commit ID does not exist
    */
-  public static void checkoutId(String id, String filename, boolean reset) throws IOException {
-    List<String> commitNames = Utils.plainFilenamesIn(FOLDER);
-    boolean found = false;
-    boolean shortened = id.length() < SHA;
-    int abbreviated = id.length();
-    if (shortened) {
-      for (String name : commitNames) {
-        if (id.equals(name.substring(0, abbreviated))) {
-          found = true;
-          id = name;
-          break;
-        }
+  public static void checkoutId(String abbrev, String filename, boolean reset) throws IOException {
+    ObjectId id = resolve(abbrev);
+    if (!reset) {
+      Command.checkoutFile(read(id), filename);
+    } else {
+      TreeMap<String, ObjectId> before = new TreeMap<>();
+      TreeMap<String, ObjectId> after = new TreeMap<>();
+      changes(Branches.headId(), id, before, after);
+      Command.checkUntracked(before, after);
+      TreeMap<String, ObjectId> staged = new TreeMap<>();
+      for (String name : Stage.staged()) {
+        staged.put(name, Stage.stagedId(name));
       }
+      for (String name : Stage.removed()) {
+        staged.put(name, null);
+      }
+      Command.checkoutFiles(id, before, after, staged);
+      Branches.update(Branches.headName(), id);
+      Stage.clearStage();
     }
-    if ((shortened && !found) || !Utils.join(FOLDER, id).exists()) {
-      System.out.println("No commit with that id exists.");
-    } else if (!reset) {
-      Command.checkoutFile(Utils.readObject(Utils.join(FOLDER, id), Commit.class), filename);
-    } else {
-      Commit c = Utils.readObject(Utils.join(FOLDER, id), Commit.class);
-      TreeMap<String, String> tracked = c.getFiles();
-      if (Command.untracked(tracked)) {
-        return;
+  }
+
+  /**
+   * Reads the commit with the given full SHA1 ID from the packs or loose files of the commits
+   * folder. Recently read commits are kept decoded, so the same one is returned again and must not
+   * be modified.
+   *
+   * @param id the sha1 of a commit
+   * @return Commit
+   */
+  public static Commit read(ObjectId id) {
+    synchronized (CACHE) {
+      Commit hit = CACHE.get(id);
+      if (hit != null) {
+        HITS.incrementAndGet();
+        return hit;
       }
-      Set<String> filenames = tracked.keySet();
-      List<String> cwdNames = Utils.plainFilenamesIn(Command.CWD);
-      for (String name : filenames) {
-        Command.checkoutFile(c, name);
+      MISSES.incrementAndGet();
+    }
+    Commit result = decode(id, true);
+    long weight = result.weight();
+    synchronized (CACHE) {
+      Commit old = CACHE.put(id, result);
+      _cached += weight - (old == null ? 0 : old.weight());
+      Iterator<Map.Entry<ObjectId, Commit>> oldest = CACHE.entrySet().iterator();
+      while (_cached > CACHE_LIMIT && oldest.hasNext()) {
+        _cached -= oldest.next().getValue().weight();
+        oldest.remove();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reads the message, timestamp and parents of the commit with the given full SHA1 ID, leaving
+   * its tracked files empty. It is not cached, so that scanning every commit neither decodes their
+   * files nor evicts recent commits.
+   *
+   * @param id the sha1 of a commit
+   * @return Commit without files
+   */
+  public static Commit readHeader(ObjectId id) {
+    synchronized (CACHE) {
+      Commit hit = CACHE.get(id);
+      if (hit != null) {
+        return hit;
+      }
+    }
+    return decode(id, false);
+  }
+
+  /**
+   * Returns the commit with the given full SHA1 ID, decoding its tracked files only if FILES.
+   * Deflated commits, which are all those written since commits were compressed, are inflated by
+   * an Inflater kept for the calling thread rather than through a stream of their own.
+   *
+   * @param id the sha1 of a commit
+   * @param files whether to decode the tracked files
+   * @return Commit
+   */
+  private static Commit decode(ObjectId id, boolean files) {
+    String name = id.toString();
+    byte[] raw = Utils.readAll(Pack.openRaw(folder(), name));
+    int header = Utils.STORE_MAGIC.length + 2;
+    if (raw.length < header
+        || !Arrays.equals(raw, 0, header - 2, Utils.STORE_MAGIC, 0, header - 2)
+        || raw[header - 2] != Utils.STORE_VERSION
+        || raw[header - 1] != Utils.ENCODING_DEFLATE) {
+      byte[] bytes = Utils.readAll(Pack.open(folder(), name));
+      return decode(bytes, bytes.length, files);
+    }
+    Inflater inflater = INFLATER.get();
+    inflater.reset();
+    inflater.setInput(raw, header, raw.length - header);
+    byte[] bytes = new byte[4 * raw.length];
+    int n = 0;
+    try {
+      while (!inflater.finished()) {
+        if (n == bytes.length) {
+          bytes = Arrays.copyOf(bytes, 2 * n);
+        }
+        int inflated = inflater.inflate(bytes, n, bytes.length - n);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw Utils.error("Corrupt commit.");
+        }
+        n += inflated;
       }
-      for (String name : cwdNames) {
-        if (!filenames.contains(name)) {
-          Utils.join(Command.CWD, name).delete();
+    } catch (DataFormatException excp) {
+      throw Utils.error("Corrupt commit.");
+    }
+    return decode(bytes, n, files);
+  }
+
+  /**
+   * Returns the sha1 of the contents of the file NAME in the commit with the given full SHA1 ID,
+   * or null if it does not track NAME. Only the trees on the way to NAME are read.
+   *
+   * @param id the sha1 of a commit
+   * @param name file name
+   * @return ObjectId sha1
+   */
+  public static ObjectId fileId(ObjectId id, String name) {
+    Commit c = readHeader(id);
+    return c._tree == null ? read(id).getFiles().get(name) : Tree.find(c._tree, name);
+  }
+
+  /**
+   * Adds to BEFORE and AFTER the tracked files that differ between the commits with the full
+   * SHA1s FROM, which may be null for no files, and TO: to BEFORE those of FROM, and to AFTER those
+   * of TO. When both have trees, only the trees that differ are read.
+   *
+   * @param from the sha1 of a commit, or null
+   * @param to the sha1 of a commit
+   * @param before files of FROM that differ
+   * @param after files of TO that differ
+   */
+  public static void changes(
+      ObjectId from,
+      ObjectId to,
+      TreeMap<String, ObjectId> before,
+      TreeMap<String, ObjectId> after) {
+    Commit a = from == null ? null : readHeader(from);
+    Commit b = readHeader(to);
+    if ((a != null && a._tree == null) || b._tree == null) {
+      a = from == null ? null : read(from);
+      b = read(to);
+    }
+    changes(a, b, before, after);
+  }
+
+  /**
+   * Adds to BEFORE and AFTER the tracked files that differ between FROM, which may be null for no
+   * files, and TO, as for changes(String, String, ...). Commits without trees must have been read
+   * with their files.
+   *
+   * @param from a commit, or null
+   * @param to a commit
+   * @param before files of FROM that differ
+   * @param after files of TO that differ
+   */
+  public static void changes(
+      Commit from,
+      Commit to,
+      TreeMap<String, ObjectId> before,
+      TreeMap<String, ObjectId> after) {
+    if ((from == null || from._tree != null) && to._tree != null) {
+      Tree.diff(from == null ? null : from._tree, to._tree, before, after);
+      return;
+    }
+    Map<String, ObjectId> old = from == null ? new TreeMap<>() : from.getFiles();
+    for (Map.Entry<String, ObjectId> file : to.getFiles().entrySet()) {
+      ObjectId id = old.get(file.getKey());
+      if (!file.getValue().equals(id)) {
+        after.put(file.getKey(), file.getValue());
+        if (id != null) {
+          before.put(file.getKey(), id);
         }
       }
-      Utils.writeContents(Branches.HEAD, Utils.readContents(Utils.join(FOLDER, id)));
-      Stage.clearStage();
     }
+    for (Map.Entry<String, ObjectId> file : old.entrySet()) {
+      if (!to.getFiles().containsKey(file.getKey())) {
+        before.put(file.getKey(), file.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns the number of reads answered from the cache so far.
+   *
+   * @return long hits
+   */
+  public static long hits() {
+    return HITS.get();
   }
 
   /**
-   * Prints out the ids of all commits that have the given commit message, one per line. If there
-   * are multiple such commits, it prints the ids out on separate lines.
+   * Returns the number of reads that had to decode a commit so far.
    *
-   * @param args {'find', commit message}
+   * @return long misses
    */
-  public static void find(String[] args) {
-    List<String> commitIds = Utils.plainFilenamesIn(FOLDER);
-    boolean found = false;
-    for (String id : commitIds) {
-      String msg = Utils.readObject(Utils.join(FOLDER, id), Commit.class).getMessage();
-      if (msg.equals(args[1])) {
-        System.out.println(id);
-        found = true;
+  public static long misses() {
+    return MISSES.get();
+  }
+
+  /**
+   * Returns a rough count of the bytes of memory this commit takes up.
+   *
+   * @return long bytes
+   */
+  private long weight() {
+    long result = 208 + 2L * _message.length();
+    for (String name : _trackedFiles.keySet()) {
+      result += 128 + 2L * name.length();
+    }
+    return result;
+  }
+
+  /**
+   * Stores the given commit compressed in the commits folder and returns its SHA1 ID, which is
+   * the SHA1 of its encoding. Writes the tree of its files first if it has none yet.
+   *
+   * @param c the commit to store
+   * @return ObjectId sha1 of the commit
+   */
+  public static ObjectId write(Commit c) {
+    if (c._tree == null) {
+      c._tree = Tree.write(null, c._trackedFiles);
+    }
+    byte[] contents = c.encode();
+    String name = Utils.sha1(contents);
+    Utils.writeStored(Pack.newLoose(folder(), name), contents);
+    ObjectId id = ObjectId.fromHex(name);
+    Graph.add(id, c);
+    Messages.add(id, c.getMessage());
+    return id;
+  }
+
+  /**
+   * Returns the binary encoding of this commit, which must have a tree: MAGIC, VERSION, the
+   * message, the timestamp, a byte of flags, the raw parent ids present, then the raw id of the
+   * tree.
+   *
+   * @return byte[] the encoding
+   */
+  public byte[] encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + 2 * _message.length());
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      writeString(out, _message);
+      out.writeLong(_timestamp.getEpochSecond());
+      out.writeInt(_timestamp.getNano());
+      int flags =
+          (_parent != null ? HAS_PARENT : 0)
+              | (_mparent != null ? HAS_MPARENT : 0)
+              | (_merge ? IS_MERGE : 0);
+      out.writeByte(flags);
+      if (_parent != null) {
+        _parent.write(out);
+      }
+      if (_mparent != null) {
+        _mparent.write(out);
       }
+      _tree.write(out);
+      out.close();
+    } catch (IOException excp) {
+      throw Utils.error("Internal error encoding commit.");
     }
-    if (!found) {
-      System.out.println("Found no commit with that message.");
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Returns the commit encoded in BYTES, which may also hold a commit serialized by an older
+   * version of Gitlet.
+   *
+   * @param bytes an encoded commit
+   * @return Commit
+   */
+  public static Commit decode(byte[] bytes) {
+    return decode(bytes, bytes.length, true);
+  }
+
+  /**
+   * Returns the commit encoded in the first LEN bytes of BYTES, as for decode(byte[]), reading
+   * its tracked files only if FILES.
+   *
+   * @param bytes an encoded commit
+   * @param len its length
+   * @param files whether to read the tracked files
+   * @return Commit
+   */
+  private static Commit decode(byte[] bytes, int len, boolean files) {
+    if (len >= 2 && ((bytes[0] & 0xff) << 8 | (bytes[1] & 0xff)) == SERIALIZED) {
+      return Utils.readObject(new ByteArrayInputStream(bytes, 0, len), Commit.class);
     }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, len));
+    try {
+      int version = in.readInt() == MAGIC ? in.readByte() : -1;
+      if (version != VERSION && version != LISTED) {
+        throw Utils.error("Unsupported commit format.");
+      }
+      String message = readString(in);
+      Instant timestamp = Instant.ofEpochSecond(in.readLong(), in.readInt());
+      int flags = in.readByte();
+      ObjectId parent = (flags & HAS_PARENT) != 0 ? ObjectId.read(in) : null;
+      ObjectId mparent = (flags & HAS_MPARENT) != 0 ? ObjectId.read(in) : null;
+      ObjectId tree = version == VERSION ? ObjectId.read(in) : null;
+      TreeMap<String, ObjectId> tracked = new TreeMap<>();
+      if (files && tree != null) {
+        tracked = Tree.files(tree);
+      }
+      for (int n = files && tree == null ? in.readInt() : 0; n > 0; n -= 1) {
+        String name = readString(in);
+        tracked.put(name, ObjectId.read(in));
+      }
+      boolean merge = (flags & IS_MERGE) != 0;
+      return new Commit(message, timestamp, parent, mparent, merge, tracked, tree);
+    } catch (IOException excp) {
+      throw Utils.error("Corrupt commit.");
+    }
+  }
+
+  /**
+   * Writes S to OUT as its length in UTF-8 bytes followed by those bytes.
+   *
+   * @param out destination
+   * @param s the string
+   * @throws IOException on write errors
+   */
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] utf = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(utf.length);
+    out.write(utf);
   }
 
   /**
-   * Checks out all the files tracked by the given commit. Removes tracked files that are not
-   * present in that commit. Also moves the current branch's head to that commit node. The staging
-   * area is cleared.
+   * Reads a string written by writeString from IN.
    *
-   * @param args {'reset', commit id}
+   * @param in source
+   * @return String
+   * @throws IOException on read errors
    */
-  public static void reset(String[] args) throws IOException {
-    checkoutId(args[1], "", true);
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] utf = new byte[in.readInt()];
+    in.readFully(utf);
+    return new String(utf, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads a commit serialized by an older version from IN, converting the ids it holds as
+   * hexadecimal Strings.
+   *
+   * @param in source
+   * @throws IOException on read errors
+   * @throws ClassNotFoundException if a serialized class is unknown
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    _message = (String) fields.get("_message", null);
+    _timestamp = (Instant) fields.get("_timestamp", null);
+    _parent = ObjectId.fromHex((String) fields.get("_parent", null));
+    _mparent = ObjectId.fromHex((String) fields.get("_mparent", null));
+    _merge = fields.get("_merge", false);
+    _trackedFiles = new TreeMap<>();
+    TreeMap<String, String> files = (TreeMap<String, String>) fields.get("_trackedFiles", null);
+    if (files != null) {
+      for (Map.Entry<String, String> file : files.entrySet()) {
+        _trackedFiles.put(file.getKey(), ObjectId.fromHex(file.getValue()));
+      }
+    }
   }
 
   /**
@@ -215,21 +640,31 @@ public class Commit implements Serializable {
   /**
    * Retrieves the parent of this commit.
    *
-   * @return String parent commit sha1
+   * @return ObjectId parent commit sha1
    */
-  public String getParent() {
+  public ObjectId getParent() {
     return this._parent;
   }
 
   /**
    * Returns the tracked files of this commit.
    *
-   * @return TreeMap<String, String> tracked files
+   * @return TreeMap<String, ObjectId> tracked files
    */
-  public TreeMap<String, String> getFiles() {
+  public TreeMap<String, ObjectId> getFiles() {
     return this._trackedFiles;
   }
 
+  /**
+   * Returns the id of the tree of the tracked files of this commit, or null if it lists them
+   * itself.
+   *
+   * @return ObjectId tree sha1
+   */
+  public ObjectId getTree() {
+    return this._tree;
+  }
+
   /**
    * Returns whether this commit object is from a merge.
    *
@@ -242,9 +677,9 @@ public class Commit implements Serializable {
   /**
    * Returns the second merged parent from this commit.
    *
-   * @return String the merged parent.
+   * @return ObjectId the merged parent.
    */
-  public String getMparent() {
+  public ObjectId getMparent() {
     return this._mparent;
   }
 }
@@ -0,0 +1,176 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Class computing and applying deltas: encodings of the contents of a file as a series of copies
+ * out of an earlier version of it (the base) and of inserted bytes.
+ *
+ * <p>A delta starts with the length of the result, followed by instructions, each either COPY,
+ * an offset and a length into the base, or INSERT, a length and that many literal bytes.
+ *
+ * @author Randy Nguyen
+ */
+public class Delta {
+
+  /** Instruction copying a range of the base. */
+  private static final int COPY = 1;
+
+  /** Instruction inserting literal bytes. */
+  private static final int INSERT = 2;
+
+  /** Length of the base blocks that are indexed and matched against. */
+  private static final int BLOCK = 16;
+
+  /** Multiplier of the rolling hash over a block. */
+  private static final int PRIME = 1000003;
+
+  /** PRIME to the power BLOCK - 1, used to roll the leading byte out of a hash. */
+  private static final int POW;
+
+  static {
+    int pow = 1;
+    for (int i = 1; i < BLOCK; i += 1) {
+      pow *= PRIME;
+    }
+    POW = pow;
+  }
+
+  /**
+   * Returns the delta turning BASE into TARGET. Runs in time linear in the sizes of both.
+   *
+   * @param base the earlier version
+   * @param target the new version
+   * @return byte[] the encoded delta
+   */
+  public static byte[] create(byte[] base, byte[] target) {
+    int blocks = base.length / BLOCK;
+    int size = Integer.highestOneBit(Math.max(blocks, 8) * 2);
+    int mask = size - 1;
+    int[] table = new int[size];
+    Arrays.fill(table, -1);
+    for (int b = 0; b < blocks; b += 1) {
+      int slot = hash(base, b * BLOCK) & mask;
+      if (table[slot] < 0) {
+        table[slot] = b * BLOCK;
+      }
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(target.length);
+      int pending = 0;
+      int i = 0;
+      int h = target.length >= BLOCK ? hash(target, 0) : 0;
+      while (blocks > 0 && i + BLOCK <= target.length) {
+        int start = table[h & mask];
+        if (start >= 0 && Arrays.equals(base, start, start + BLOCK, target, i, i + BLOCK)) {
+          int len = BLOCK;
+          while (start + len < base.length
+              && i + len < target.length
+              && base[start + len] == target[i + len]) {
+            len += 1;
+          }
+          while (i > pending && start > 0 && base[start - 1] == target[i - 1]) {
+            i -= 1;
+            start -= 1;
+            len += 1;
+          }
+          insert(out, target, pending, i);
+          out.writeByte(COPY);
+          out.writeInt(start);
+          out.writeInt(len);
+          i += len;
+          pending = i;
+          if (i + BLOCK <= target.length) {
+            h = hash(target, i);
+          }
+        } else {
+          if (i + BLOCK < target.length) {
+            h = (h - (target[i] & 0xff) * POW) * PRIME + (target[i + BLOCK] & 0xff);
+          }
+          i += 1;
+        }
+      }
+      insert(out, target, pending, target.length);
+      out.close();
+    } catch (IOException excp) {
+      throw Utils.error("Internal error computing delta.");
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Returns the result of applying the delta read from OPS to BASE.
+   *
+   * @param base the earlier version
+   * @param ops the encoded delta
+   * @return byte[] the new version
+   * @throws IOException if the delta is malformed or cannot be read
+   */
+  public static byte[] apply(byte[] base, InputStream ops) throws IOException {
+    DataInputStream in = new DataInputStream(ops);
+    byte[] result = new byte[in.readInt()];
+    int pos = 0;
+    while (true) {
+      int op = in.read();
+      if (op < 0) {
+        break;
+      } else if (op == COPY) {
+        int start = in.readInt();
+        int len = in.readInt();
+        System.arraycopy(base, start, result, pos, len);
+        pos += len;
+      } else if (op == INSERT) {
+        int len = in.readInt();
+        in.readFully(result, pos, len);
+        pos += len;
+      } else {
+        throw new IOException("malformed delta");
+      }
+    }
+    if (pos != result.length) {
+      throw new EOFException("truncated delta");
+    }
+    return result;
+  }
+
+  /**
+   * Writes an INSERT of the bytes of TARGET from FROM up to TO to OUT, if there are any.
+   *
+   * @param out destination
+   * @param target the new version
+   * @param from first byte to insert
+   * @param to end of the bytes to insert
+   * @throws IOException on write errors
+   */
+  private static void insert(DataOutputStream out, byte[] target, int from, int to)
+      throws IOException {
+    if (from < to) {
+      out.writeByte(INSERT);
+      out.writeInt(to - from);
+      out.write(target, from, to - from);
+    }
+  }
+
+  /**
+   * Returns the rolling hash of the BLOCK bytes of DATA starting at START.
+   *
+   * @param data bytes
+   * @param start first byte of the block
+   * @return int hash
+   */
+  private static int hash(byte[] data, int start) {
+    int h = 0;
+    for (int k = start; k < start + BLOCK; k += 1) {
+      h = h * PRIME + (data[k] & 0xff);
+    }
+    return h;
+  }
+}
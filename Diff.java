@@ -0,0 +1,542 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Class representing the line diff engine shared by merge and diff.
+ *
+ * <p>Texts are split into lines that keep their terminators. Two texts are matched by trimming
+ * their common first and last lines, hashing each remaining line to 64 bits, and running Myers'
+ * algorithm in its linear-space form on the hashes: the middle snake of the shortest edit script
+ * is found by searching forwards and backwards at once, and the two halves on either side of it
+ * are matched in turn. Only the two diagonal arrays of the search are kept, so space is linear in
+ * the lengths of the texts. Lines matched by their hashes are then compared byte for byte, and a
+ * pair that turns out to differ is left unmatched, so the edit script is always right even in the
+ * unlikely event of a collision.
+ *
+ * <p>Differences are written as unified diffs with CONTEXT lines of context, hunk by hunk as they
+ * are found.
+ *
+ * @author Randy Nguyen
+ */
+public class Diff {
+
+  /** Reads eight bytes of an array at once. */
+  private static final VarHandle WORD =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  /** Lines of context around each change. */
+  private static final int CONTEXT = 3;
+
+  /** Bytes looked at for a NUL when deciding whether contents are binary. */
+  private static final int BINARY_PROBE = 8000;
+
+  /** Written after a last line that has no newline. */
+  private static final byte[] NO_NEWLINE =
+      "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+  /** The contents of a file split into lines. */
+  public static class Text {
+
+    /** The contents. */
+    private final byte[] _bytes;
+
+    /** Offset of the start of each line, then the length of the contents. */
+    private final int[] _starts;
+
+    /**
+     * Splits BYTES into lines, each ending after a newline or at the end of the contents.
+     *
+     * @param bytes contents of a file
+     */
+    public Text(byte[] bytes) {
+      _bytes = bytes;
+      int[] starts = new int[Math.max(16, bytes.length / 32)];
+      int lines = 0;
+      for (int i = 0; i < bytes.length; i += 1) {
+        if (bytes[i] == '\n' || i == bytes.length - 1) {
+          lines += 1;
+          if (lines == starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+          }
+          starts[lines] = i + 1;
+        }
+      }
+      _starts = Arrays.copyOf(starts, lines + 1);
+    }
+
+    /**
+     * Returns the number of lines.
+     *
+     * @return int count
+     */
+    public int size() {
+      return _starts.length - 1;
+    }
+
+    /**
+     * Returns true iff line I is line J of OTHER.
+     *
+     * @param i a line
+     * @param other a text
+     * @param j a line of it
+     * @return boolean
+     */
+    public boolean same(int i, Text other, int j) {
+      return Arrays.equals(
+          _bytes, _starts[i], _starts[i + 1], other._bytes, other._starts[j], other._starts[j + 1]);
+    }
+
+    /**
+     * Returns true iff the lines FROM to TO, exclusive, are the lines OFROM to OTO of OTHER.
+     *
+     * @param from first line
+     * @param to line after the last
+     * @param other a text
+     * @param oFrom first line of OTHER
+     * @param oTo line of OTHER after the last
+     * @return boolean
+     */
+    public boolean same(int from, int to, Text other, int oFrom, int oTo) {
+      return Arrays.equals(
+          _bytes,
+          _starts[from],
+          _starts[to],
+          other._bytes,
+          other._starts[oFrom],
+          other._starts[oTo]);
+    }
+
+    /**
+     * Writes the lines FROM to TO, exclusive, to OUT.
+     *
+     * @param out destination
+     * @param from first line
+     * @param to line after the last
+     * @throws IOException on write errors
+     */
+    public void write(OutputStream out, int from, int to) throws IOException {
+      out.write(_bytes, _starts[from], _starts[to] - _starts[from]);
+    }
+
+    /**
+     * Writes line I to OUT as a line of a hunk, after PREFIX, noting if it has no newline.
+     *
+     * @param out destination
+     * @param prefix ' ', '-' or '+'
+     * @param i a line
+     * @throws IOException on write errors
+     */
+    private void writeLine(OutputStream out, char prefix, int i) throws IOException {
+      out.write(prefix);
+      write(out, i, i + 1);
+      if (_bytes[_starts[i + 1] - 1] != '\n') {
+        out.write(NO_NEWLINE);
+      }
+    }
+
+    /**
+     * Returns the 64-bit hashes of the lines FROM to TO, exclusive, read eight bytes at a time.
+     *
+     * @param from first line
+     * @param to line after the last
+     * @return long[] hashes
+     */
+    private long[] hashes(int from, int to) {
+      long[] result = new long[to - from];
+      for (int i = from; i < to; i += 1) {
+        int k = _starts[i];
+        int end = _starts[i + 1];
+        long h = end - k;
+        for (; k + Long.BYTES <= end; k += Long.BYTES) {
+          h = mix(h, (long) WORD.get(_bytes, k));
+        }
+        long last = 0;
+        for (; k < end; k += 1) {
+          last = (last << 8) | (_bytes[k] & 0xff);
+        }
+        h = mix(h, last);
+        result[i - from] = h ^ (h >>> 29);
+      }
+      return result;
+    }
+
+    /**
+     * Returns true iff the contents look binary: they have a NUL among their first bytes.
+     *
+     * @return boolean
+     */
+    private boolean binary() {
+      for (int i = 0; i < _bytes.length && i < BINARY_PROBE; i += 1) {
+        if (_bytes[i] == 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Returns, for each line of A, the line of B it is matched with in a shortest edit script from
+   * A to B, or -1 if it is deleted. Matched lines are in increasing order on both sides.
+   *
+   * @param a the old text
+   * @param b the new text
+   * @return int[] matches
+   */
+  public static int[] match(Text a, Text b) {
+    int[] result = new int[a.size()];
+    Arrays.fill(result, -1);
+    int aLo = 0;
+    int bLo = 0;
+    int aHi = a.size();
+    int bHi = b.size();
+    while (aLo < aHi && bLo < bHi && a.same(aLo, b, bLo)) {
+      result[aLo] = bLo;
+      aLo += 1;
+      bLo += 1;
+    }
+    while (aLo < aHi && bLo < bHi && a.same(aHi - 1, b, bHi - 1)) {
+      aHi -= 1;
+      bHi -= 1;
+      result[aHi] = bHi;
+    }
+    if (aLo == aHi || bLo == bHi) {
+      return result;
+    }
+    long[] aLines = a.hashes(aLo, aHi);
+    long[] bLines = b.hashes(bLo, bHi);
+    int[] middle = new int[aHi - aLo];
+    Arrays.fill(middle, -1);
+    match(aLines, 0, aLines.length, bLines, 0, bLines.length, middle);
+    for (int i = 0; i < middle.length; i += 1) {
+      if (middle[i] >= 0 && a.same(aLo + i, b, bLo + middle[i])) {
+        result[aLo + i] = bLo + middle[i];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the hash H with the eight bytes WORD mixed into it.
+   *
+   * @param h a hash
+   * @param word bytes of a line
+   * @return long hash
+   */
+  private static long mix(long h, long word) {
+    return Long.rotateLeft(h ^ (word * 0x9e3779b97f4a7c15L), 31) * 0xc2b2ae3d27d4eb4fL;
+  }
+
+  /**
+   * Matches the lines ALO to AHI of A with the lines BLO to BHI of B into RESULT.
+   *
+   * @param a hashes of the lines of the old text
+   * @param aLo first line of A
+   * @param aHi line of A after the last
+   * @param b hashes of the lines of the new text
+   * @param bLo first line of B
+   * @param bHi line of B after the last
+   * @param result matches
+   */
+  private static void match(
+      long[] a, int aLo, int aHi, long[] b, int bLo, int bHi, int[] result) {
+    while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+      result[aLo] = bLo;
+      aLo += 1;
+      bLo += 1;
+    }
+    while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+      aHi -= 1;
+      bHi -= 1;
+      result[aHi] = bHi;
+    }
+    if (aLo == aHi || bLo == bHi) {
+      return;
+    }
+    int[] split = middleSnake(a, aLo, aHi, b, bLo, bHi);
+    if (split == null) {
+      return;
+    }
+    match(a, aLo, aLo + split[0], b, bLo, bLo + split[1], result);
+    match(a, aLo + split[0], aHi, b, bLo + split[1], bHi, result);
+  }
+
+  /**
+   * Returns the point, relative to ALO and BLO, where a shortest edit script from the lines ALO to
+   * AHI of A to the lines BLO to BHI of B crosses its middle, or null if they have no line in
+   * common. Neither range is empty, and they neither start nor end with equal lines.
+   *
+   * @param a hashes of the lines of the old text
+   * @param aLo first line of A
+   * @param aHi line of A after the last
+   * @param b hashes of the lines of the new text
+   * @param bLo first line of B
+   * @param bHi line of B after the last
+   * @return int[] {line of A, line of B}, or null
+   */
+  private static int[] middleSnake(long[] a, int aLo, int aHi, long[] b, int bLo, int bHi) {
+    int n = aHi - aLo;
+    int m = bHi - bLo;
+    int max = (n + m + 1) / 2;
+    int offset = max;
+    int length = 2 * max + 2;
+    int[] forward = new int[length];
+    int[] backward = new int[length];
+    Arrays.fill(forward, -1);
+    Arrays.fill(backward, -1);
+    forward[offset + 1] = 0;
+    backward[offset + 1] = 0;
+    int delta = n - m;
+    boolean odd = delta % 2 != 0;
+    int fStart = 0;
+    int fEnd = 0;
+    int bStart = 0;
+    int bEnd = 0;
+    for (int d = 0; d < max; d += 1) {
+      for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+        int i = offset + k;
+        int x;
+        if (k == -d || (k != d && forward[i - 1] < forward[i + 1])) {
+          x = forward[i + 1];
+        } else {
+          x = forward[i - 1] + 1;
+        }
+        int y = x - k;
+        while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+          x += 1;
+          y += 1;
+        }
+        forward[i] = x;
+        if (x > n) {
+          fEnd += 2;
+        } else if (y > m) {
+          fStart += 2;
+        } else if (odd) {
+          int j = offset + delta - k;
+          if (j >= 0 && j < length && backward[j] != -1 && x >= n - backward[j]) {
+            return new int[] {x, y};
+          }
+        }
+      }
+      for (int k = -d + bStart; k <= d - bEnd; k += 2) {
+        int i = offset + k;
+        int x;
+        if (k == -d || (k != d && backward[i - 1] < backward[i + 1])) {
+          x = backward[i + 1];
+        } else {
+          x = backward[i - 1] + 1;
+        }
+        int y = x - k;
+        while (x < n && y < m && a[aHi - x - 1] == b[bHi - y - 1]) {
+          x += 1;
+          y += 1;
+        }
+        backward[i] = x;
+        if (x > n) {
+          bEnd += 2;
+        } else if (y > m) {
+          bStart += 2;
+        } else if (!odd) {
+          int j = offset + delta - k;
+          if (j >= 0 && j < length && forward[j] != -1) {
+            int fx = forward[j];
+            if (fx >= n - x) {
+              return new int[] {fx, fx - (j - offset)};
+            }
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Writes to OUT the differences between the files BEFORE and AFTER, the sha1 of the contents of
+   * each file by name. Files with the same sha1 on both sides are not read.
+   *
+   * @param out destination
+   * @param before the old files
+   * @param after the new files
+   * @throws IOException on write errors
+   */
+  public static void files(
+      OutputStream out, TreeMap<String, ObjectId> before, TreeMap<String, ObjectId> after)
+      throws IOException {
+    TreeMap<String, ObjectId> names = new TreeMap<>(before);
+    names.putAll(after);
+    for (String name : names.keySet()) {
+      ObjectId old = before.get(name);
+      ObjectId now = after.get(name);
+      if (old == null || !old.equals(now)) {
+        file(out, name, blob(old), blob(now));
+      }
+    }
+  }
+
+  /**
+   * Returns the contents of the blob SHA, or null if SHA is null.
+   *
+   * @param sha sha1 of a blob, or null
+   * @return byte[] contents
+   */
+  public static byte[] blob(ObjectId sha) {
+    return sha == null ? null : Utils.readAll(Blobs.open(sha.toString()));
+  }
+
+  /**
+   * Writes to OUT the differences between the contents BEFORE and AFTER of the file NAME, either
+   * of which is null if the file is absent on that side.
+   *
+   * @param out destination
+   * @param name file name
+   * @param before old contents, or null
+   * @param after new contents, or null
+   * @throws IOException on write errors
+   */
+  public static void file(OutputStream out, String name, byte[] before, byte[] after)
+      throws IOException {
+    Text a = new Text(before == null ? new byte[0] : before);
+    Text b = new Text(after == null ? new byte[0] : after);
+    String old = before == null ? "/dev/null" : "a/" + name;
+    String now = after == null ? "/dev/null" : "b/" + name;
+    if (a.binary() || b.binary()) {
+      write(out, "Binary files " + old + " and " + now + " differ\n");
+      return;
+    }
+    write(out, "--- " + old + "\n+++ " + now + "\n");
+    Iterator<int[]> changes = changes(match(a, b), b.size());
+    int[] next = changes.hasNext() ? changes.next() : null;
+    while (next != null) {
+      int leading = Math.min(CONTEXT, next[0]);
+      List<int[]> hunk = new ArrayList<>();
+      do {
+        hunk.add(next);
+        next = changes.hasNext() ? changes.next() : null;
+      } while (next != null && next[0] - hunk.get(hunk.size() - 1)[1] <= 2 * CONTEXT);
+      int[] first = hunk.get(0);
+      int[] last = hunk.get(hunk.size() - 1);
+      int trailing = Math.min(CONTEXT, a.size() - last[1]);
+      int[] bounds = {
+        first[0] - leading, last[1] + trailing, first[2] - leading, last[3] + trailing
+      };
+      hunk(out, a, b, bounds, hunk);
+    }
+  }
+
+  /**
+   * Writes S to OUT.
+   *
+   * @param out destination
+   * @param s text
+   * @throws IOException on write errors
+   */
+  private static void write(OutputStream out, String s) throws IOException {
+    out.write(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Returns the changes of the edit script given by MATCHES from a text to one of NEW lines:
+   * {first deleted line, line after the last, first inserted line, line after the last}, in order.
+   *
+   * @param matches lines of the new text matched by those of the old one, or -1
+   * @param size number of lines of the new text
+   * @return Iterator<int[]> changes
+   */
+  private static Iterator<int[]> changes(int[] matches, int size) {
+    return new Iterator<int[]>() {
+      private int _i;
+      private int _j;
+      private int[] _next = advance();
+
+      @Override
+      public boolean hasNext() {
+        return _next != null;
+      }
+
+      @Override
+      public int[] next() {
+        int[] result = _next;
+        _next = advance();
+        return result;
+      }
+
+      private int[] advance() {
+        while (_i < matches.length || _j < size) {
+          int i = _i;
+          int j = _j;
+          while (_i < matches.length && matches[_i] < 0) {
+            _i += 1;
+          }
+          _j = _i < matches.length ? matches[_i] : size;
+          int[] change = {i, _i, j, _j};
+          if (_i < matches.length) {
+            _i += 1;
+            _j += 1;
+          }
+          if (change[0] < change[1] || change[2] < change[3]) {
+            return change;
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Writes the hunk of the lines of A and B in BOUNDS, made of CHANGES and the lines of context
+   * around them.
+   *
+   * @param out destination
+   * @param a the old text
+   * @param b the new text
+   * @param bounds {first line of A, line after the last, first line of B, line after the last}
+   * @param changes changes in the hunk, in order
+   * @throws IOException on write errors
+   */
+  private static void hunk(OutputStream out, Text a, Text b, int[] bounds, List<int[]> changes)
+      throws IOException {
+    String header = "@@ -" + range(bounds[0], bounds[1]) + " +" + range(bounds[2], bounds[3]);
+    write(out, header + " @@\n");
+    int i = bounds[0];
+    for (int[] change : changes) {
+      for (; i < change[0]; i += 1) {
+        a.writeLine(out, ' ', i);
+      }
+      for (; i < change[1]; i += 1) {
+        a.writeLine(out, '-', i);
+      }
+      for (int j = change[2]; j < change[3]; j += 1) {
+        b.writeLine(out, '+', j);
+      }
+    }
+    for (; i < bounds[1]; i += 1) {
+      a.writeLine(out, ' ', i);
+    }
+  }
+
+  /**
+   * Returns the range of lines FROM to TO, exclusive, as written in a hunk header: the first line
+   * counting from 1 (or the line before an empty range) and the count, unless it is 1.
+   *
+   * @param from first line
+   * @param to line after the last
+   * @return String range
+   */
+  private static String range(int from, int to) {
+    if (to - from == 1) {
+      return Integer.toString(from + 1);
+    }
+    return (to == from ? from : from + 1) + "," + (to - from);
+  }
+}
@@ -0,0 +1,768 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Class representing the commit graph: a memory-mapped table of every commit with the positions of
+ * its parents, its generation number, its timestamp and a filter of the files it changed, so that
+ * history can be walked without reading any commit.
+ *
+ * <p>The file holds a header (magic, version and the number of sorted records) followed by fixed
+ * size records: the raw commit id, the positions of the parent and merge parent (-1 if none), the
+ * generation (1 for the initial commit, otherwise one more than that of its highest parent), the
+ * commit's time in epoch seconds and its changed-path filter. The filter is a Bloom filter of the
+ * names of the files the commit adds, removes or changes compared with its first parent, so a file
+ * whose bits are not all set was not changed.
+ *
+ * <p>The first records are sorted by id and found by binary search. Records of new commits are
+ * appended after them, in an order where parents come first, and found through a table built when
+ * the file is mapped. Appending never moves a record, so a position stays valid for the whole
+ * command that took it; only once a command that may change the repository is done, or on repack,
+ * is the whole file rewritten sorted, if more than TAIL_LIMIT records are unsorted. Records are
+ * appended only after any partial record left by an interrupted append is cut off, and a partial
+ * record at the end of the file is ignored.
+ *
+ * <p>Commits missing from the graph, such as those made by older versions, are added the first
+ * time they are looked up. A graph in an older format is discarded and rebuilt the same way.
+ *
+ * @author Randy Nguyen
+ */
+public class Graph {
+
+  /**
+   * Returns the commit-graph file of the current repository.
+   *
+   * @return File
+   */
+  static File file() {
+    return Utils.join(Command.gitletFolder(), "commit-graph");
+  }
+
+  /** Leading int of the file ("GGRF"). */
+  private static final int MAGIC = 0x47475246;
+
+  /** Version of the file format. */
+  private static final int VERSION = 2;
+
+  /** Bytes in the header: magic, version and the number of sorted records. */
+  private static final int HEADER = 12;
+
+  /** Bytes in a raw SHA1. */
+  private static final int ID = 20;
+
+  /** Bytes in the changed-path filter of a commit. */
+  private static final int FILTER = 32;
+
+  /** Bits of a changed-path filter set for each file name. */
+  private static final int HASHES = 7;
+
+  /** Bytes in a record: id, parent, merge parent, generation, time and filter. */
+  private static final int RECORD = ID + 20 + FILTER;
+
+  /** Most unsorted records kept before the file is rewritten sorted. */
+  private static final int TAIL_LIMIT = 4096;
+
+  /** Mark of the commits reachable from the first side of a merge-base walk. */
+  private static final int ONE = 1;
+
+  /** Mark of the commits reachable from the second side. */
+  private static final int TWO = 2;
+
+  /** Marks of a common ancestor. */
+  private static final int BOTH = ONE | TWO;
+
+  /** Mark of the commits below a common ancestor. */
+  private static final int STALE = 4;
+
+  /** The mapped file, or null if it has not been mapped during this command. */
+  private ByteBuffer _map;
+
+  /** Number of sorted records. */
+  private int _sorted;
+
+  /** Number of records. */
+  private int _count;
+
+  /** Positions of the unsorted records, by id. */
+  private HashMap<ObjectId, Integer> _tail;
+
+  /** Whether this command has appended to the file. */
+  private boolean _grown;
+
+  /**
+   * Returns the number of commits in the graph.
+   *
+   * @return int count
+   */
+  public static int count() {
+    return load()._count;
+  }
+
+  /**
+   * Returns the position of the commit ID in the graph, adding it and its missing ancestors first
+   * if need be. A command that only reads the repository maps the graph again before adding them,
+   * since another may have added them meanwhile.
+   *
+   * @param id a commit sha1
+   * @return int position
+   */
+  public static int position(ObjectId id) {
+    int pos = find(id);
+    if (pos < 0) {
+      Repository.current()
+          .extend(
+              () -> {
+                Repository.current().graph()._map = null;
+                if (find(id) < 0) {
+                  backfill(id);
+                }
+                return null;
+              });
+      pos = find(id);
+    }
+    return pos;
+  }
+
+  /**
+   * Returns the position of the commit ID in the graph, or -1 if it is not there.
+   *
+   * @param id a commit sha1
+   * @return int position
+   */
+  public static int find(ObjectId id) {
+    Graph g = load();
+    Integer tail = g._tail.get(id);
+    if (tail != null) {
+      return tail;
+    }
+    int lo = 0;
+    int hi = g._sorted - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int c = ObjectId.fromBuffer(g._map, HEADER + mid * RECORD).compareTo(id);
+      if (c < 0) {
+        lo = mid + 1;
+      } else if (c > 0) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns false if the commit at POS certainly does not add, remove or change the file NAME
+   * compared with its first parent. Returns true if it may.
+   *
+   * @param pos a position
+   * @param name file name
+   * @return boolean
+   */
+  public static boolean mayChange(int pos, String name) {
+    ByteBuffer map = load()._map;
+    int filter = HEADER + pos * RECORD + ID + 20;
+    long hash = hash(name);
+    for (int i = 0; i < HASHES; i += 1) {
+      int bit = bit(hash, i);
+      if ((map.get(filter + bit / 8) & (1 << (bit % 8))) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the changed-path filter of the commit ID, whose first parent is PARENT: that of every
+   * name it tracks with contents other than its parent's, or of every name if there are more of
+   * those than the filter has bits. The two are compared by their trees where they have them.
+   *
+   * @param id a commit sha1
+   * @param parent its first parent's sha1, or null
+   * @return byte[] filter
+   */
+  private static byte[] filter(ObjectId id, ObjectId parent) {
+    TreeMap<String, ObjectId> before = new TreeMap<>();
+    TreeMap<String, ObjectId> after = new TreeMap<>();
+    Commit.changes(parent, id, before, after);
+    TreeSet<String> changed = new TreeSet<>(before.keySet());
+    changed.addAll(after.keySet());
+    byte[] result = new byte[FILTER];
+    if (changed.size() > FILTER * 8) {
+      Arrays.fill(result, (byte) -1);
+      return result;
+    }
+    for (String name : changed) {
+      long hash = hash(name);
+      for (int i = 0; i < HASHES; i += 1) {
+        int bit = bit(hash, i);
+        result[bit / 8] |= 1 << (bit % 8);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the 64-bit FNV-1a hash of the UTF-8 bytes of NAME.
+   *
+   * @param name file name
+   * @return long hash
+   */
+  private static long hash(String name) {
+    long result = 0xcbf29ce484222325L;
+    for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+      result = (result ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the Ith bit of a filter set for a name with HASH, by double hashing its two halves.
+   *
+   * @param hash hash of the name
+   * @param i which bit
+   * @return int bit index
+   */
+  private static int bit(long hash, int i) {
+    int step = (int) (hash >>> 32) | 1;
+    return Math.floorMod((int) hash + i * step, FILTER * 8);
+  }
+
+  /**
+   * Returns the id of the commit at POS.
+   *
+   * @param pos a position
+   * @return ObjectId sha1
+   */
+  public static ObjectId id(int pos) {
+    return ObjectId.fromBuffer(load()._map, HEADER + pos * RECORD);
+  }
+
+  /**
+   * Returns the position of the parent of the commit at POS, or -1 if it has none.
+   *
+   * @param pos a position
+   * @return int position
+   */
+  public static int parent(int pos) {
+    return load()._map.getInt(HEADER + pos * RECORD + ID);
+  }
+
+  /**
+   * Returns the position of the merge parent of the commit at POS, or -1 if it has none.
+   *
+   * @param pos a position
+   * @return int position
+   */
+  public static int mergeParent(int pos) {
+    return load()._map.getInt(HEADER + pos * RECORD + ID + 4);
+  }
+
+  /**
+   * Returns the generation number of the commit at POS.
+   *
+   * @param pos a position
+   * @return int generation
+   */
+  public static int generation(int pos) {
+    return load()._map.getInt(HEADER + pos * RECORD + ID + 8);
+  }
+
+  /**
+   * Returns the time of the commit at POS, in epoch seconds.
+   *
+   * @param pos a position
+   * @return long time
+   */
+  public static long time(int pos) {
+    return load()._map.getLong(HEADER + pos * RECORD + ID + 12);
+  }
+
+  /**
+   * Returns the positions of the common ancestors of the commits at ONE and TWO that are not
+   * ancestors of one another.
+   *
+   * <p>Both sides are walked at once, newest generation first, marking each commit with the sides
+   * it can be reached from. A commit reachable from both is a common ancestor, and everything
+   * below it is marked stale; the walk stops once only stale commits are left, so it never goes
+   * further back than the common ancestors themselves. The commits queued that are not stale are
+   * counted as they are queued, taken and marked, so checking for them costs nothing. After
+   * criss-cross merges there can be several common ancestors.
+   *
+   * @param one a position
+   * @param two a position
+   * @return List<Integer> positions
+   */
+  public static List<Integer> mergeBases(int one, int two) {
+    List<Integer> result = new ArrayList<>();
+    if (one == two) {
+      result.add(one);
+      return result;
+    }
+    int[] flags = new int[count()];
+    int[] queued = new int[flags.length];
+    PriorityQueue<Integer> queue = new PriorityQueue<>(Graph::newerFirst);
+    flags[one] = ONE;
+    flags[two] = TWO;
+    queue.add(one);
+    queue.add(two);
+    queued[one] = 1;
+    queued[two] = 1;
+    int fresh = 2;
+    while (fresh > 0) {
+      int c = queue.poll();
+      int mark = flags[c];
+      queued[c] -= 1;
+      if ((mark & STALE) == 0) {
+        fresh -= 1;
+        if ((mark & BOTH) == BOTH) {
+          result.add(c);
+          fresh -= queued[c];
+        }
+      }
+      if ((mark & BOTH) == BOTH) {
+        mark |= STALE;
+        flags[c] = mark;
+      }
+      for (int p : new int[] {parent(c), mergeParent(c)}) {
+        if (p >= 0 && (flags[p] & mark) != mark) {
+          if ((flags[p] & STALE) == 0 && (mark & STALE) != 0) {
+            fresh -= queued[p];
+          }
+          flags[p] |= mark;
+          queue.add(p);
+          queued[p] += 1;
+          if ((flags[p] & STALE) == 0) {
+            fresh += 1;
+          }
+        }
+      }
+    }
+    if (result.size() > 1) {
+      List<Integer> independent = new ArrayList<>();
+      for (int base : result) {
+        boolean redundant = false;
+        for (int other : result) {
+          if (other != base && isAncestor(base, other)) {
+            redundant = true;
+            break;
+          }
+        }
+        if (!redundant) {
+          independent.add(base);
+        }
+      }
+      result = independent;
+    }
+    return result;
+  }
+
+  /**
+   * Returns true iff the commit at ANCESTOR is an ancestor of the commit at POS. Commits of a
+   * generation lower than that of ANCESTOR are never walked past.
+   *
+   * @param ancestor a position
+   * @param pos a position
+   * @return boolean
+   */
+  public static boolean isAncestor(int ancestor, int pos) {
+    int floor = generation(ancestor);
+    HashSet<Integer> seen = new HashSet<>();
+    ArrayDeque<Integer> stack = new ArrayDeque<>();
+    stack.push(pos);
+    while (!stack.isEmpty()) {
+      int c = stack.pop();
+      if (c == ancestor) {
+        return true;
+      }
+      for (int p : new int[] {parent(c), mergeParent(c)}) {
+        if (p >= 0 && generation(p) >= floor && seen.add(p)) {
+          stack.push(p);
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the positions of the commits IDS, newest first: by decreasing time, then generation.
+   * Adds all those missing from the graph first, and only then looks up their positions.
+   *
+   * @param ids commit sha1s
+   * @return int[] positions
+   */
+  public static int[] newestFirst(Iterator<String> ids) {
+    List<ObjectId> commits = new ArrayList<>(count());
+    while (ids.hasNext()) {
+      ObjectId id = ObjectId.fromHex(ids.next());
+      if (find(id) < 0) {
+        position(id);
+      }
+      commits.add(id);
+    }
+    int n = commits.size();
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i += 1) {
+      order[i] = find(commits.get(i));
+    }
+    Arrays.sort(
+        order,
+        (a, b) -> {
+          int c = Long.compare(time(b), time(a));
+          return c != 0 ? c : Integer.compare(generation(b), generation(a));
+        });
+    int[] positions = new int[n];
+    for (int i = 0; i < n; i += 1) {
+      positions[i] = order[i];
+    }
+    return positions;
+  }
+
+  /**
+   * Orders the commits at A and B by decreasing generation, then time.
+   *
+   * @param a a position
+   * @param b a position
+   * @return int comparison
+   */
+  private static int newerFirst(int a, int b) {
+    int c = Integer.compare(generation(b), generation(a));
+    return c != 0 ? c : Long.compare(time(b), time(a));
+  }
+
+  /**
+   * Adds the newly written commit C, whose sha1 is ID, to the graph.
+   *
+   * @param id its sha1
+   * @param c the commit
+   */
+  public static void add(ObjectId id, Commit c) {
+    if (find(id) >= 0) {
+      return;
+    }
+    int parent = c.getParent() == null ? -1 : position(c.getParent());
+    int mparent = c.getMparent() == null ? -1 : position(c.getMparent());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      long time = c.getTimestamp().getEpochSecond();
+      byte[] filter = filter(id, c.getParent());
+      record(out, id, parent, mparent, generation(parent, mparent), time, filter);
+      out.close();
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+    append(bytes.toByteArray(), 1);
+  }
+
+  /**
+   * Adds the commit ID and all its ancestors missing from the graph, reading each of them once.
+   *
+   * @param id a commit sha1
+   */
+  private static void backfill(ObjectId id) {
+    ArrayList<ObjectId> order = new ArrayList<>();
+    HashMap<ObjectId, Integer> added = new HashMap<>();
+    HashMap<ObjectId, Node> pending = new HashMap<>();
+    ArrayDeque<ObjectId> stack = new ArrayDeque<>();
+    stack.push(id);
+    while (!stack.isEmpty()) {
+      ObjectId top = stack.peek();
+      if (added.containsKey(top) || find(top) >= 0) {
+        stack.pop();
+        continue;
+      }
+      Node c = pending.computeIfAbsent(top, Node::new);
+      boolean ready = true;
+      for (ObjectId p : new ObjectId[] {c._parent, c._mparent}) {
+        if (p != null && !added.containsKey(p) && find(p) < 0) {
+          stack.push(p);
+          ready = false;
+        }
+      }
+      if (ready) {
+        stack.pop();
+        added.put(top, count() + order.size());
+        order.add(top);
+      }
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD * order.size());
+    DataOutputStream out = new DataOutputStream(bytes);
+    int[] generations = new int[order.size()];
+    int count = count();
+    try {
+      for (int i = 0; i < order.size(); i += 1) {
+        Node c = pending.remove(order.get(i));
+        int parent = c._parent == null ? -1 : lookup(c._parent, added);
+        int mparent = c._mparent == null ? -1 : lookup(c._mparent, added);
+        int gen = 1;
+        for (int p : new int[] {parent, mparent}) {
+          if (p >= count) {
+            gen = Math.max(gen, generations[p - count] + 1);
+          } else if (p >= 0) {
+            gen = Math.max(gen, generation(p) + 1);
+          }
+        }
+        generations[i] = gen;
+        record(out, order.get(i), parent, mparent, gen, c._time, c._filter);
+      }
+      out.close();
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+    append(bytes.toByteArray(), order.size());
+  }
+
+  /**
+   * Returns the position of ID, either among those ADDED but not written yet or in the graph.
+   *
+   * @param id a commit sha1
+   * @param added positions of the commits not written yet
+   * @return int position
+   */
+  private static int lookup(ObjectId id, HashMap<ObjectId, Integer> added) {
+    Integer pos = added.get(id);
+    return pos != null ? pos : find(id);
+  }
+
+  /**
+   * Returns the generation of a commit whose parents are at PARENT and MPARENT.
+   *
+   * @param parent position of the parent, or -1
+   * @param mparent position of the merge parent, or -1
+   * @return int generation
+   */
+  private static int generation(int parent, int mparent) {
+    int gen = 1;
+    if (parent >= 0) {
+      gen = Math.max(gen, generation(parent) + 1);
+    }
+    if (mparent >= 0) {
+      gen = Math.max(gen, generation(mparent) + 1);
+    }
+    return gen;
+  }
+
+  /**
+   * Writes the record of a commit to OUT.
+   *
+   * @param out destination
+   * @param id its sha1
+   * @param parent position of its parent, or -1
+   * @param mparent position of its merge parent, or -1
+   * @param gen its generation
+   * @param time its time in epoch seconds
+   * @param filter its changed-path filter
+   * @throws IOException on write errors
+   */
+  private static void record(
+      DataOutputStream out, ObjectId id, int parent, int mparent, int gen, long time, byte[] filter)
+      throws IOException {
+    id.write(out);
+    out.writeInt(parent);
+    out.writeInt(mparent);
+    out.writeInt(gen);
+    out.writeLong(time);
+    out.write(filter);
+  }
+
+  /** What the graph needs of a commit that is being added to it. */
+  private static class Node {
+
+    /** Id of the parent, or null. */
+    private final ObjectId _parent;
+
+    /** Id of the merge parent, or null. */
+    private final ObjectId _mparent;
+
+    /** Time in epoch seconds. */
+    private final long _time;
+
+    /** Changed-path filter. */
+    private final byte[] _filter;
+
+    /**
+     * Reads the commit ID.
+     *
+     * @param id a commit sha1
+     */
+    Node(ObjectId id) {
+      Commit c = Commit.readHeader(id);
+      _parent = c.getParent();
+      _mparent = c.getMparent();
+      _time = c.getTimestamp().getEpochSecond();
+      _filter = filter(id, _parent);
+    }
+  }
+
+  /**
+   * Appends the N RECORDS to the file, creating it if need be. A partial record or header left at
+   * its end by an interrupted append is cut off first, so that the new records are not shifted.
+   *
+   * @param records encoded records
+   * @param n how many there are
+   */
+  private static void append(byte[] records, int n) {
+    if (n == 0) {
+      return;
+    }
+    try (FileChannel channel =
+        FileChannel.open(file().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      long size = channel.size();
+      if (size < HEADER) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putInt(0);
+        channel.truncate(0);
+        channel.write(header.flip(), 0);
+        size = HEADER;
+      } else {
+        size = HEADER + (size - HEADER) / RECORD * RECORD;
+        channel.truncate(size);
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(records);
+      while (buffer.hasRemaining()) {
+        size += channel.write(buffer, size);
+      }
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+    Graph g = Repository.current().graph();
+    g._map = null;
+    g._grown = true;
+  }
+
+  /**
+   * Rewrites the graph sorted if this command added to it and more than TAIL_LIMIT of its records
+   * are now unsorted. Run once a command that may change the repository is done, since it moves
+   * records that positions taken earlier refer to.
+   */
+  public static void compact() {
+    Graph g = Repository.current().graph();
+    if (g._grown && count() - load()._sorted > TAIL_LIMIT) {
+      rewrite();
+    }
+  }
+
+  /** Rewrites the graph with all its records sorted by id, if it exists. */
+  public static void rewrite() {
+    if (!file().isFile()) {
+      return;
+    }
+    Graph g = load();
+    Integer[] order = new Integer[g._count];
+    byte[][] ids = new byte[g._count][ID];
+    for (int i = 0; i < g._count; i += 1) {
+      order[i] = i;
+      g._map.get(HEADER + i * RECORD, ids[i]);
+    }
+    Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(ids[a], ids[b]));
+    int[] moved = new int[g._count];
+    for (int i = 0; i < g._count; i += 1) {
+      moved[order[i]] = i;
+    }
+    byte[] filter = new byte[FILTER];
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER + RECORD * g._count);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(g._count);
+      for (int pos : order) {
+        int parent = parent(pos);
+        int mparent = mergeParent(pos);
+        out.write(ids[pos]);
+        out.writeInt(parent < 0 ? -1 : moved[parent]);
+        out.writeInt(mparent < 0 ? -1 : moved[mparent]);
+        out.writeInt(generation(pos));
+        out.writeLong(time(pos));
+        g._map.get(HEADER + pos * RECORD + ID + 20, filter);
+        out.write(filter);
+      }
+      out.close();
+      File tmp = Utils.join(Command.gitletFolder(), "commit-graph.tmp");
+      Utils.writeContents(tmp, bytes.toByteArray());
+      Files.move(tmp.toPath(), file().toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+    g._map = null;
+  }
+
+  /**
+   * Returns the graph of the current repository, mapping its file if it has not been mapped since
+   * it last changed.
+   *
+   * @return Graph the mapped graph
+   */
+  private static Graph load() {
+    Graph g = Repository.current().graph();
+    if (g._map != null) {
+      return g;
+    }
+    g._tail = new HashMap<>();
+    if (!file().isFile()) {
+      g._map = ByteBuffer.allocate(0);
+      g._sorted = 0;
+      g._count = 0;
+      return g;
+    }
+    try (FileChannel channel = FileChannel.open(file().toPath(), StandardOpenOption.READ)) {
+      g._map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+    if (g._map.capacity() < HEADER) {
+      g._map = ByteBuffer.allocate(0);
+      g._sorted = 0;
+      g._count = 0;
+      return g;
+    }
+    if (g._map.getInt(0) != MAGIC || g._map.getInt(4) > VERSION) {
+      throw Utils.error("Unsupported commit-graph format.");
+    }
+    if (g._map.getInt(4) < VERSION) {
+      g._map = null;
+      Repository.current()
+          .extend(
+              () -> {
+                if (!file().isFile()) {
+                  return null;
+                }
+                try (DataInputStream in = new DataInputStream(new FileInputStream(file()))) {
+                  in.readInt();
+                  if (in.readInt() < VERSION) {
+                    file().delete();
+                  }
+                }
+                return null;
+              });
+      return load();
+    }
+    g._sorted = g._map.getInt(8);
+    g._count = (g._map.capacity() - HEADER) / RECORD;
+    for (int pos = g._sorted; pos < g._count; pos += 1) {
+      g._tail.put(id(pos), pos);
+    }
+    return g;
+  }
+}
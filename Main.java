@@ -1,6 +1,8 @@
 package gitlet;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
 
 /**
  * Driver class for Gitlet, the tiny stupid version-control system.
@@ -8,69 +10,157 @@ import java.io.IOException;
  * @author Randy Nguyen
  */
 public class Main {
-  /** Usage: java gitlet.Main ARGS, where ARGS contains <COMMAND> <OPERAND> .... */
+  /**
+   * Usage: java gitlet.Main ARGS, where ARGS contains <COMMAND> <OPERAND> .... Hands ARGS to the
+   * server of this repository if one is running.
+   */
   public static void main(String... args) throws IOException {
+    if (Server.forward(args)) {
+      return;
+    } else if (args.length > 0 && args[0].equals("server") && Command.gitletFolder().exists()) {
+      Server.serve(args);
+    } else {
+      run(System.out, args);
+    }
+  }
+
+  /**
+   * Runs the command ARGS in this process on the repository of the working directory, printing
+   * to OUT what it returns and the error that stopped it, if any. Commands that only read the
+   * repository may run alongside others doing the same.
+   *
+   * @param out where to print
+   * @param args <COMMAND> <OPERAND> ....
+   * @throws IOException in event of abnormal files
+   */
+  static void run(PrintStream out, String... args) throws IOException {
+    Repository repo = Repository.current();
     if (args.length == 0) {
-      System.out.println("Please enter a command.");
-    } else if (!args[0].equals("init") && !Command.GITLET_FOLDER.exists()) {
-      System.out.println("Not in an initialized Gitlet directory.");
+      out.println("Please enter a command.");
+    } else if (!args[0].equals("init") && !repo.exists()) {
+      out.println("Not in an initialized Gitlet directory.");
+    } else if (args[0].equals("watch")) {
+      Monitor.watch(args);
     } else {
-      switch (args[0]) {
-        case "init":
-          if (Command.GITLET_FOLDER.exists()) {
-            System.out.println(
-                "A Gitlet version-control system " + "already exists in the current directory.");
-          } else {
-            Command.init(args);
-          }
-          break;
-        case "add":
-          if (Utils.join(Command.CWD, args[1]).exists()) {
-            Stage.add(args);
-          } else {
-            System.out.println("File does not exist.");
-          }
-          break;
-        case "commit":
-          if (args[1].length() <= 0) {
-            System.out.println("Please enter a commit message.");
-          } else {
-            Commit.commit(args);
-          }
-          break;
-        case "log":
-          Command.log(Branches.headId(), false, args);
-          break;
-        case "checkout":
-          Command.checkout(args);
-          break;
-        case "rm":
-          Stage.rm(args);
-          break;
-        case "global-log":
-          Command.globalLog(args);
-          break;
-        case "find":
-          Commit.find(args);
-          break;
-        case "status":
-          Command.status();
-          break;
-        case "branch":
-          Branches.branch(args);
-          break;
-        case "rm-branch":
-          Branches.removeBranch(args);
-          break;
-        case "reset":
-          Commit.reset(args);
-          break;
-        case "merge":
-          Branches.merge(args);
-          break;
-        default:
-          System.out.println("No command with that name exists.");
+      try {
+        Repository.Action<Void> command =
+            () -> {
+              run(repo, out, args);
+              return null;
+            };
+        if (reads(args)) {
+          repo.read(command);
+        } else {
+          repo.call(command);
+        }
+      } catch (GitletException excp) {
+        out.println(excp.getMessage());
       }
     }
   }
+
+  /**
+   * Returns true iff the command ARGS only reads the repository.
+   *
+   * @param args <COMMAND> <OPERAND> ....
+   * @return boolean
+   */
+  private static boolean reads(String... args) {
+    switch (args[0]) {
+      case "log":
+      case "global-log":
+      case "find":
+        return true;
+      case "diff":
+        return args.length == 3;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns the single operand of the command ARGS.
+   *
+   * @param args <COMMAND> <OPERAND>
+   * @return String the operand
+   */
+  private static String operand(String... args) {
+    if (args.length != 2) {
+      throw Utils.error("Incorrect operands.");
+    }
+    return args[1];
+  }
+
+  /**
+   * Runs the command ARGS on REPO, printing to OUT.
+   *
+   * @param repo the repository
+   * @param out where to print
+   * @param args <COMMAND> <OPERAND> ....
+   * @throws IOException in event of abnormal files
+   */
+  private static void run(Repository repo, PrintStream out, String... args) throws IOException {
+    switch (args[0]) {
+      case "init":
+        repo.init();
+        break;
+      case "add":
+        repo.add(operand(args));
+        break;
+      case "commit":
+        repo.commit(operand(args));
+        break;
+      case "log":
+        Command.log(repo, args, out);
+        break;
+      case "checkout":
+        Command.checkout(repo, args);
+        break;
+      case "rm":
+        repo.rm(operand(args));
+        break;
+      case "global-log":
+        Command.globalLog(repo.globalLog(args.length > 1 && args[1].equals("--sorted")), out);
+        break;
+      case "find":
+        List<String> found = repo.find(operand(args));
+        if (found.isEmpty()) {
+          out.println("Found no commit with that message.");
+        }
+        for (String id : found) {
+          out.println(id);
+        }
+        break;
+      case "diff":
+        Command.diff(repo, args, out);
+        break;
+      case "status":
+        Command.status(repo.status(), out);
+        break;
+      case "branch":
+        repo.branch(operand(args));
+        break;
+      case "rm-branch":
+        repo.removeBranch(operand(args));
+        break;
+      case "reset":
+        repo.reset(operand(args));
+        break;
+      case "merge":
+        Repository.MergeResult merged = repo.merge(operand(args));
+        if (merged.getOutcome() == Repository.MergeResult.Outcome.ANCESTOR) {
+          out.println("Given branch is an ancestor of the current branch.");
+        } else if (merged.getOutcome() == Repository.MergeResult.Outcome.FAST_FORWARD) {
+          out.println("Current branch fast-forwarded.");
+        } else if (merged.hasConflict()) {
+          out.println("Encountered a merge conflict.");
+        }
+        break;
+      case "repack":
+        repo.repack();
+        break;
+      default:
+        out.println("No command with that name exists.");
+    }
+  }
 }
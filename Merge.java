@@ -0,0 +1,151 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class representing the three-way merge of the contents of a file changed on both branches.
+ *
+ * <p>Both versions are matched line by line against the split point with Diff. A line of the split
+ * point matched in both is stable, and the lines between two stable ones form a chunk. A chunk
+ * changed on one side only takes that side, and one changed alike on both takes either. Only a
+ * chunk changed differently on each side is a conflict, written between the markers
+ *
+ * <pre>
+ * &lt;&lt;&lt;&lt;&lt;&lt;&lt; HEAD
+ * contents of file in current branch
+ * =======
+ * contents of file in given branch
+ * &gt;&gt;&gt;&gt;&gt;&gt;&gt;
+ * </pre>
+ *
+ * <p>A file deleted on one side and changed on the other is a conflict as a whole. The result is
+ * written straight to the working file as it is made.
+ *
+ * @author Randy Nguyen
+ */
+public class Merge {
+
+  /** Marker opening a conflict, before the current branch's lines. */
+  private static final byte[] OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+
+  /** Marker between the current and the given branch's lines. */
+  private static final byte[] BETWEEN = "=======\n".getBytes(StandardCharsets.UTF_8);
+
+  /** Marker closing a conflict. */
+  private static final byte[] THEIRS = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+  /** Bytes buffered before writing the merged file. */
+  private static final int BUFFER = 1 << 16;
+
+  /**
+   * Writes to the working file NAME the merge of the blobs OURS and THEIRS, the versions of the
+   * current and given branch, against SPLIT, that of the split point. Any of them may be null if
+   * the file is absent there. Returns true iff there is a conflict.
+   *
+   * @param name file name
+   * @param split sha1 of the split point's contents, or null
+   * @param ours sha1 of the current branch's contents, or null
+   * @param theirs sha1 of the given branch's contents, or null
+   * @return boolean
+   * @throws IOException on write errors
+   */
+  public static boolean merge(String name, ObjectId split, ObjectId ours, ObjectId theirs)
+      throws IOException {
+    Diff.Text head = text(ours);
+    Diff.Text given = text(theirs);
+    File file = Command.workingFile(name);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER)) {
+      if (ours == null || theirs == null) {
+        conflict(out, head, 0, head.size(), given, 0, given.size());
+        return true;
+      }
+      return merge(out, text(split), head, given);
+    }
+  }
+
+  /**
+   * Returns the contents of the blob SHA split into lines, or no lines if SHA is null.
+   *
+   * @param sha sha1 of a blob, or null
+   * @return Diff.Text
+   */
+  private static Diff.Text text(ObjectId sha) {
+    return new Diff.Text(sha == null ? new byte[0] : Utils.readAll(Blobs.open(sha.toString())));
+  }
+
+  /**
+   * Writes to OUT the merge of OURS and THEIRS against BASE. Returns true iff there is a conflict.
+   *
+   * @param out destination
+   * @param base lines of the split point
+   * @param ours lines of the current branch
+   * @param theirs lines of the given branch
+   * @return boolean
+   * @throws IOException on write errors
+   */
+  private static boolean merge(OutputStream out, Diff.Text base, Diff.Text ours, Diff.Text theirs)
+      throws IOException {
+    int[] toOurs = Diff.match(base, ours);
+    int[] toTheirs = Diff.match(base, theirs);
+    boolean conflict = false;
+    int b = 0;
+    int o = 0;
+    int t = 0;
+    while (true) {
+      int stable = b;
+      while (stable < base.size() && (toOurs[stable] < 0 || toTheirs[stable] < 0)) {
+        stable += 1;
+      }
+      int oEnd = stable < base.size() ? toOurs[stable] : ours.size();
+      int tEnd = stable < base.size() ? toTheirs[stable] : theirs.size();
+      if (ours.same(o, oEnd, base, b, stable)) {
+        theirs.write(out, t, tEnd);
+      } else if (theirs.same(t, tEnd, base, b, stable) || ours.same(o, oEnd, theirs, t, tEnd)) {
+        ours.write(out, o, oEnd);
+      } else {
+        conflict(out, ours, o, oEnd, theirs, t, tEnd);
+        conflict = true;
+      }
+      if (stable == base.size()) {
+        return conflict;
+      }
+      base.write(out, stable, stable + 1);
+      b = stable + 1;
+      o = oEnd + 1;
+      t = tEnd + 1;
+    }
+  }
+
+  /**
+   * Writes to OUT a conflict between the lines OFROM to OTO of OURS and TFROM to TTO of THEIRS.
+   *
+   * @param out destination
+   * @param ours lines of the current branch
+   * @param oFrom first line of OURS
+   * @param oTo line of OURS after the last
+   * @param theirs lines of the given branch
+   * @param tFrom first line of THEIRS
+   * @param tTo line of THEIRS after the last
+   * @throws IOException on write errors
+   */
+  private static void conflict(
+      OutputStream out,
+      Diff.Text ours,
+      int oFrom,
+      int oTo,
+      Diff.Text theirs,
+      int tFrom,
+      int tTo)
+      throws IOException {
+    out.write(OURS);
+    ours.write(out, oFrom, oTo);
+    out.write(BETWEEN);
+    theirs.write(out, tFrom, tTo);
+    out.write(THEIRS);
+  }
+}
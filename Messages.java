@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Class representing the message index: the ids of the commits with each message, so that find
+ * need not read every commit.
+ *
+ * <p>The index is a folder holding, for each message, a file named by the SHA1 of the message and
+ * listing the ids of the commits that have it, one per line. Commit.write appends to it without
+ * reading it, so a commit written twice is listed twice; find reports it once. If the folder does
+ * not exist, as in repositories made by older versions, it is built from every commit the first
+ * time it is needed.
+ *
+ * <p>A command that dies mid-append can leave a torn line, which find skips, or can miss a commit
+ * it wrote. Repack rebuilds the index from every commit, which repairs both, and deleting the
+ * folder has the next find do the same.
+ *
+ * @author Randy Nguyen
+ */
+public class Messages {
+
+  /**
+   * Returns the folder of the current repository holding its message index.
+   *
+   * @return File
+   */
+  static File folder() {
+    return Utils.join(Command.gitletFolder(), "messages");
+  }
+
+  /** Bytes in a line of an index file: an id and a newline. */
+  private static final int LINE = Utils.UID_LENGTH + 1;
+
+  /** Creates an empty index, for a repository that has no commits yet. */
+  public static void init() {
+    folder().mkdir();
+  }
+
+  /**
+   * Records that the newly written commit ID has MESSAGE by appending it to the file of MESSAGE,
+   * whatever that file already lists. Does nothing if there is no index yet, since it will include
+   * the commit when it is built.
+   *
+   * @param id commit sha1
+   * @param message its message
+   */
+  public static void add(ObjectId id, String message) {
+    if (!folder().isDirectory()) {
+      return;
+    }
+    File f = Utils.join(folder(), Utils.sha1(message));
+    try (FileOutputStream out = new FileOutputStream(f, true)) {
+      out.write((id + "\n").getBytes(StandardCharsets.UTF_8));
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+  }
+
+  /**
+   * Returns the ids of the commits whose message is MESSAGE, in lexicographic order, each once.
+   * Builds the index first if there is none.
+   *
+   * @param message commit message
+   * @return List<String> commit sha1s
+   */
+  public static List<String> find(String message) {
+    if (!folder().isDirectory()) {
+      Repository.current()
+          .extend(
+              () -> {
+                if (!folder().isDirectory()) {
+                  rebuild();
+                }
+                return null;
+              });
+    }
+    File f = Utils.join(folder(), Utils.sha1(message));
+    TreeSet<String> result = new TreeSet<>();
+    if (f.isFile()) {
+      for (String id : new TreeSet<>(ids(f))) {
+        if (Commit.readHeader(ObjectId.fromHex(id)).getMessage().equals(message)) {
+          result.add(id);
+        }
+      }
+    }
+    return new ArrayList<>(result);
+  }
+
+  /** Builds the index anew from every commit, replacing it at once when it is complete. */
+  public static void rebuild() {
+    HashMap<String, StringBuilder> lines = new HashMap<>();
+    Iterator<String> ids = Pack.scan(Commit.folder());
+    while (ids.hasNext()) {
+      String id = ids.next();
+      String hash = Utils.sha1(Commit.readHeader(ObjectId.fromHex(id)).getMessage());
+      lines.computeIfAbsent(hash, h -> new StringBuilder()).append(id).append('\n');
+    }
+    File tmp = Utils.join(Command.gitletFolder(), "messages.tmp");
+    for (File old : listFiles(tmp)) {
+      old.delete();
+    }
+    tmp.mkdir();
+    for (Map.Entry<String, StringBuilder> file : lines.entrySet()) {
+      Utils.writeContents(Utils.join(tmp, file.getKey()), file.getValue().toString());
+    }
+    for (File old : listFiles(folder())) {
+      old.delete();
+    }
+    folder().delete();
+    if (!tmp.renameTo(folder())) {
+      throw Utils.error("Could not write the message index.");
+    }
+  }
+
+  /**
+   * Returns the ids listed in the index file F, skipping any line that is not a whole id.
+   *
+   * @param f an index file
+   * @return List<String> commit sha1s
+   */
+  private static List<String> ids(File f) {
+    byte[] contents;
+    try {
+      contents = Files.readAllBytes(f.toPath());
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+    List<String> result = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < contents.length; i += 1) {
+      if (contents[i] == '\n') {
+        if (i + 1 - start == LINE) {
+          result.add(new String(contents, start, Utils.UID_LENGTH, StandardCharsets.UTF_8));
+        }
+        start = i + 1;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the files in DIR, or none if it is not a directory.
+   *
+   * @param dir a directory
+   * @return File[] its files
+   */
+  private static File[] listFiles(File dir) {
+    File[] result = dir.listFiles();
+    return result == null ? new File[0] : result;
+  }
+}
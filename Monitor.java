@@ -0,0 +1,634 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A class watching the working directory so that commands need not list or stat all of it.
+ *
+ * <p>The watch command runs a monitor until it is stopped. It keeps, for every file name it has
+ * seen in the working directory, whether that file exists and the sequence number of its last
+ * change, along with a token naming this run of the monitor. The index records the token and
+ * sequence number it was last written at, so a file whose last change is no later than that has
+ * not been touched since.
+ *
+ * <p>Commands ask the monitor through the socket SOCKET for the changes after a sequence number,
+ * and it sends back only the names changed since, or all of them if it no longer remembers that
+ * far back. Before answering, the monitor creates a cookie file and waits for its own event, which
+ * guarantees every change made before the request has been seen. A View of what the commands of
+ * this process have been sent is kept by the Repository between commands, so that a long-running
+ * process asks only for what changed since its last command. If the monitor does not answer in
+ * time, commands fall back to scanning the working directory.
+ *
+ * @author Randy Nguyen
+ */
+public class Monitor {
+
+  /**
+   * Returns the socket the monitor of the current repository listens on.
+   *
+   * @return File
+   */
+  static File socket() {
+    return Utils.join(Command.gitletFolder(), "fsmonitor.sock");
+  }
+
+  /** Prefix of the name of each cookie file the monitor creates. */
+  private static final String COOKIE = "fsmonitor-cookie-";
+
+  /** Leading int of an answer of the monitor ("GFSM"). */
+  private static final int MAGIC = 0x4746534d;
+
+  /** Version of the protocol of the monitor. */
+  private static final int VERSION = 2;
+
+  /** Milliseconds between checks by an idle monitor that it has not been stopped. */
+  private static final long HEARTBEAT = 1000;
+
+  /** Milliseconds a command waits for the monitor to answer. */
+  private static final long SYNC_TIMEOUT = 250;
+
+  /** Sequence number asking the monitor for its token and sequence number only. */
+  private static final long NOTHING = Long.MAX_VALUE;
+
+  /** Whether this command has synchronized with the monitor yet. */
+  private boolean _synced;
+
+  /** Token of the monitor, or 0 if there is no usable one. */
+  private long _token;
+
+  /** Whether the monitor failed to answer during this command. */
+  private boolean _failed;
+
+  /** What the commands of a process have been sent by the monitor of a repository. */
+  static class View {
+
+    /** Token of the monitor, or 0 if none has answered. */
+    private long _token;
+
+    /** Sequence number of the last change the monitor sent. */
+    private long _seq;
+
+    /** Sequence number after which every change is known. */
+    private long _base;
+
+    /** Whether every file name the monitor has seen is known. */
+    private boolean _complete;
+
+    /** Sequence number of the last change to each file name known to have changed. */
+    private final HashMap<String, Long> _changes = new HashMap<>();
+
+    /** Names of the files in the working directory, if complete. */
+    private final TreeSet<String> _existing = new TreeSet<>();
+  }
+
+  /**
+   * Returns what this command has learned about the monitor of the current repository.
+   *
+   * @return Monitor
+   */
+  private static Monitor state() {
+    return Repository.current().monitor();
+  }
+
+  /**
+   * Returns what this process has been sent by the monitor of the current repository.
+   *
+   * @return View
+   */
+  private static View view() {
+    return Repository.current().monitorView();
+  }
+
+  /**
+   * Returns the token of the monitor, or 0 if there is none this command can trust.
+   *
+   * @return long token
+   */
+  public static long token() {
+    if (!state()._synced) {
+      state()._synced = true;
+      View view = view();
+      if (view._token != 0 ? ask(view._token, view._seq) : ask(0, NOTHING)) {
+        state()._token = view._token;
+      }
+    }
+    return state()._token;
+  }
+
+  /**
+   * Returns the sequence number of the last change sent by the monitor.
+   *
+   * @return long sequence number
+   */
+  public static long seq() {
+    token();
+    return view()._seq;
+  }
+
+  /**
+   * Returns true iff the monitor named TOKEN is running and the working file NAME has not changed
+   * since its change number SEQ.
+   *
+   * @param name file name
+   * @param token token of a monitor
+   * @param seq sequence number
+   * @return boolean
+   */
+  public static boolean unchangedSince(String name, long token, long seq) {
+    if (token == 0 || token() != token) {
+      return false;
+    }
+    View view = view();
+    if (seq < view._base && (state()._failed || !ask(token, seq) || seq < view._base)) {
+      return false;
+    }
+    Long last = view._changes.get(name);
+    return last == null || last <= seq;
+  }
+
+  /**
+   * Returns the paths of the plain files in the working directory and its subdirectories, in
+   * order.
+   *
+   * @return List<String> names
+   */
+  public static List<String> files() {
+    if (!complete()) {
+      return Utils.filenamesUnder(Command.cwd());
+    }
+    return new ArrayList<>(view()._existing);
+  }
+
+  /**
+   * Returns true iff the working file NAME exists.
+   *
+   * @param name file name
+   * @return boolean
+   */
+  public static boolean exists(String name) {
+    if (!complete()) {
+      return Utils.join(Command.cwd(), name).exists();
+    }
+    return view()._existing.contains(name);
+  }
+
+  /**
+   * Returns true iff every file name the monitor has seen is known, asking it for all of them
+   * if need be.
+   *
+   * @return boolean
+   */
+  private static boolean complete() {
+    long token = token();
+    if (token == 0) {
+      return false;
+    }
+    return view()._complete || (!state()._failed && ask(token, -1) && view()._complete);
+  }
+
+  /**
+   * Asks the monitor for the changes after its change number SINCE, or for all file names if
+   * TOKEN is not its token or it no longer remembers that far back, and takes in its answer.
+   * Returns false, having learned nothing, if there is no monitor or it does not answer in time.
+   *
+   * @param token token of the monitor the changes are asked of
+   * @param since sequence number
+   * @return boolean whether the monitor answered
+   */
+  private static boolean ask(long token, long since) {
+    if (!socket().exists()) {
+      return false;
+    }
+    try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        Selector selector = Selector.open()) {
+      channel.connect(UnixDomainSocketAddress.of(socket().toPath()));
+      ByteBuffer request = ByteBuffer.allocate(2 * Long.BYTES).putLong(token).putLong(since);
+      channel.write(request.flip());
+      channel.configureBlocking(false);
+      channel.register(selector, SelectionKey.OP_READ);
+      long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+      ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+      if (!receive(channel, selector, length, deadline)) {
+        throw new IOException("no answer");
+      }
+      ByteBuffer answer = ByteBuffer.allocate(length.flip().getInt());
+      if (!receive(channel, selector, answer, deadline)) {
+        throw new IOException("no answer");
+      }
+      take(answer.array(), since);
+      return true;
+    } catch (IOException excp) {
+      state()._failed = true;
+      return false;
+    }
+  }
+
+  /**
+   * Reads from CHANNEL, registered with SELECTOR, until BUFFER is full, waiting for it to be
+   * readable rather than past DEADLINE. Returns true iff BUFFER was filled.
+   *
+   * @param channel a connection to the monitor
+   * @param selector a selector CHANNEL is registered for reading with
+   * @param buffer where to read to
+   * @param deadline milliseconds since the epoch
+   * @return boolean
+   * @throws IOException on read errors
+   */
+  private static boolean receive(
+      SocketChannel channel, Selector selector, ByteBuffer buffer, long deadline)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      long wait = deadline - System.currentTimeMillis();
+      if (wait <= 0) {
+        return false;
+      }
+      selector.select(wait);
+      selector.selectedKeys().clear();
+      if (channel.read(buffer) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Takes the ANSWER of the monitor to a request for the changes after SINCE into the View.
+   *
+   * @param answer an answer, after its length
+   * @param since the sequence number asked for
+   * @throws IOException if the answer is malformed
+   */
+  private static void take(byte[] answer, long since) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(answer));
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("unknown monitor");
+    }
+    long token = in.readLong();
+    long seq = in.readLong();
+    boolean all = in.readBoolean();
+    View view = view();
+    if (all || token != view._token) {
+      view._token = token;
+      view._base = all ? 0 : seq;
+      view._complete = all;
+      view._changes.clear();
+      view._existing.clear();
+    } else {
+      view._base = Math.min(view._base, Math.max(since, 0));
+    }
+    view._seq = seq;
+    for (int n = in.readInt(); n > 0; n -= 1) {
+      String name = in.readUTF();
+      boolean exists = in.readBoolean();
+      view._changes.put(name, in.readLong());
+      if (exists) {
+        view._existing.add(name);
+      } else {
+        view._existing.remove(name);
+      }
+    }
+  }
+
+  /**
+   * Runs the monitor over the working directory until it is stopped, or stops the running one.
+   *
+   * @param args {'watch'} or {'watch', '--stop'}
+   * @throws IOException if the working directory cannot be watched
+   */
+  public static void watch(String[] args) throws IOException {
+    if (args.length > 1 && args[1].equals("--stop")) {
+      socket().delete();
+      return;
+    }
+    new Daemon().run();
+  }
+
+  /** A request waiting for the monitor to see its cookie. */
+  private static class Request {
+
+    /** The connection to answer on. */
+    private final SocketChannel _client;
+
+    /** Token of the monitor the changes are asked of. */
+    private final long _token;
+
+    /** Sequence number the changes after which are asked for. */
+    private final long _since;
+
+    /**
+     * A request of CLIENT for the changes after SINCE of the monitor TOKEN.
+     *
+     * @param client a connection
+     * @param token a token
+     * @param since a sequence number
+     */
+    Request(SocketChannel client, long token, long since) {
+      _client = client;
+      _token = token;
+      _since = since;
+    }
+  }
+
+  /** The running monitor. */
+  private static class Daemon {
+
+    /** Token of this run. */
+    private final long _token = new Random().nextLong() | 1;
+
+    /** Sequence number of the last change seen. */
+    private long _seq;
+
+    /** Sequence number after which every change is still in _log. */
+    private long _base;
+
+    /** Whether each file name seen exists, and the sequence number of its last change. */
+    private final TreeMap<String, long[]> _names = new TreeMap<>();
+
+    /** Names changed at each sequence number after _base. */
+    private final TreeMap<Long, List<String>> _log = new TreeMap<>();
+
+    /** Number of names in _log. */
+    private int _logged;
+
+    /** Requests by the number of their cookie, until it is seen. */
+    private final TreeMap<Long, Request> _pending = new TreeMap<>();
+
+    /** Number of the last cookie created. */
+    private long _cookies;
+
+    /** Path, ending in '/' unless empty, of each directory watched, by its key. */
+    private final HashMap<WatchKey, String> _dirs = new HashMap<>();
+
+    /** The watch service of this run. */
+    private WatchService _watcher;
+
+    /**
+     * Watches the working directory and its subdirectories and answers requests on SOCKET until
+     * it is removed.
+     *
+     * @throws IOException if the working directory cannot be watched
+     */
+    void run() throws IOException {
+      Path gitlet = Command.gitletFolder().toPath();
+      socket().delete();
+      try (WatchService watcher = FileSystems.getDefault().newWatchService();
+          ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+        _watcher = watcher;
+        watch(Command.cwd(), "", false);
+        gitlet.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        rescan();
+        listener.bind(UnixDomainSocketAddress.of(socket().toPath()));
+        Thread acceptor = new Thread(() -> accept(listener, gitlet));
+        acceptor.setDaemon(true);
+        acceptor.start();
+        while (socket().exists()) {
+          WatchKey key = watcher.poll(HEARTBEAT, TimeUnit.MILLISECONDS);
+          while (key != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+              String name = String.valueOf(event.context());
+              if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescan();
+              } else if (_dirs.containsKey(key)) {
+                seen(_dirs.get(key) + name, event.kind());
+              } else if (name.startsWith(COOKIE)) {
+                answer(gitlet.resolve(name), Long.parseLong(name.substring(COOKIE.length())));
+              }
+            }
+            if (!key.reset()) {
+              _dirs.remove(key);
+            }
+            key = watcher.poll();
+          }
+        }
+      } catch (InterruptedException | ClosedWatchServiceException excp) {
+        return;
+      } finally {
+        socket().delete();
+      }
+    }
+
+    /**
+     * Takes requests from LISTENER until it is closed, creating in GITLET a cookie for each.
+     *
+     * @param listener the socket of the monitor
+     * @param gitlet the .gitlet folder
+     */
+    private void accept(ServerSocketChannel listener, Path gitlet) {
+      while (true) {
+        SocketChannel client;
+        try {
+          client = listener.accept();
+        } catch (IOException excp) {
+          return;
+        }
+        try {
+          DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+          Request request = new Request(client, in.readLong(), in.readLong());
+          synchronized (_pending) {
+            _cookies += 1;
+            Path cookie = gitlet.resolve(COOKIE + _cookies);
+            Files.deleteIfExists(cookie);
+            Files.createFile(cookie);
+            _pending.put(_cookies, request);
+          }
+        } catch (IOException excp) {
+          try {
+            client.close();
+          } catch (IOException ignored) {
+            continue;
+          }
+        }
+      }
+    }
+
+    /**
+     * Answers the requests whose cookies are no later than COOKIE, the number of the cookie file
+     * FILE, which is then removed.
+     *
+     * @param file a cookie file
+     * @param cookie its number
+     */
+    private void answer(Path file, long cookie) {
+      List<Request> requests;
+      synchronized (_pending) {
+        Map<Long, Request> seen = _pending.headMap(cookie, true);
+        requests = new ArrayList<>(seen.values());
+        seen.clear();
+      }
+      for (Request request : requests) {
+        try (SocketChannel client = request._client) {
+          client.write(ByteBuffer.wrap(changes(request._token, request._since)));
+        } catch (IOException excp) {
+          continue;
+        }
+      }
+      file.toFile().delete();
+    }
+
+    /**
+     * Returns the answer to a request for the changes after SINCE of the monitor TOKEN: its
+     * length, then the token and sequence number of this monitor and the names changed after
+     * SINCE, or all of them if TOKEN is not this monitor or SINCE is no longer in _log.
+     *
+     * @param token a token
+     * @param since a sequence number
+     * @return byte[]
+     * @throws IOException on write errors
+     */
+    private byte[] changes(long token, long since) throws IOException {
+      boolean all = since != NOTHING && (token != _token || since < _base);
+      Iterable<String> names;
+      if (all) {
+        names = _names.keySet();
+      } else {
+        LinkedHashSet<String> changed = new LinkedHashSet<>();
+        for (List<String> batch : _log.tailMap(since, false).values()) {
+          changed.addAll(batch);
+        }
+        names = changed;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(_token);
+      out.writeLong(_seq);
+      out.writeBoolean(all);
+      int count = 0;
+      ByteArrayOutputStream entries = new ByteArrayOutputStream();
+      DataOutputStream entry = new DataOutputStream(entries);
+      for (String name : names) {
+        long[] state = _names.get(name);
+        entry.writeUTF(name);
+        entry.writeBoolean(state[0] == 1);
+        entry.writeLong(state[1]);
+        count += 1;
+      }
+      out.writeInt(count);
+      entries.writeTo(out);
+      out.close();
+      ByteBuffer result = ByteBuffer.wrap(bytes.toByteArray());
+      result.putInt(0, result.capacity() - Integer.BYTES);
+      return result.array();
+    }
+
+    /**
+     * Notes that the working file NAME changed at the current sequence number and whether it
+     * EXISTS, forgetting the oldest changes once more are kept than there are names.
+     *
+     * @param name file name
+     * @param exists whether it exists
+     */
+    private void changed(String name, boolean exists) {
+      _names.put(name, new long[] {exists ? 1 : 0, _seq});
+      _log.computeIfAbsent(_seq, seq -> new ArrayList<>()).add(name);
+      _logged += 1;
+      while (_logged > 2 * _names.size() && _log.size() > 1) {
+        Map.Entry<Long, List<String>> oldest = _log.pollFirstEntry();
+        _logged -= oldest.getValue().size();
+        _base = oldest.getKey();
+      }
+    }
+
+    /** Lists the working directory anew, counting every file name seen as changed. */
+    private void rescan() throws IOException {
+      _seq += 1;
+      for (String name : new ArrayList<>(_names.keySet())) {
+        changed(name, false);
+      }
+      watch(Command.cwd(), "", false);
+      for (String name : Utils.filenamesUnder(Command.cwd())) {
+        changed(name, true);
+      }
+    }
+
+    /**
+     * Takes in the event KIND reported for the working path NAME. A new directory is watched
+     * along with everything in it, and the files of a deleted one are counted as deleted.
+     *
+     * @param name path of a file or directory
+     * @param kind the kind of event
+     * @throws IOException if a new directory cannot be watched
+     */
+    private void seen(String name, WatchEvent.Kind<?> kind) throws IOException {
+      File f = Utils.join(Command.cwd(), name);
+      if (name.equals(".gitlet")) {
+        return;
+      } else if (f.isDirectory()) {
+        if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+          _seq += 1;
+          watch(f, name + "/", true);
+        }
+        return;
+      }
+      _seq += 1;
+      changed(name, f.isFile());
+      if (!f.exists()) {
+        for (String under :
+            new ArrayList<>(_names.subMap(name + "/", name + (char) ('/' + 1)).keySet())) {
+          changed(under, false);
+        }
+      }
+    }
+
+    /**
+     * Watches DIR, whose path is PREFIX, and the directories in it other than .gitlet, unless they
+     * already are. If FRESH, also counts the files in them as changed.
+     *
+     * @param dir a directory
+     * @param prefix its path, ending in '/' unless empty
+     * @param fresh whether the files in it are new
+     * @throws IOException if the directory cannot be watched
+     */
+    private void watch(File dir, String prefix, boolean fresh) throws IOException {
+      WatchKey key =
+          dir.toPath()
+              .register(
+                  _watcher,
+                  StandardWatchEventKinds.ENTRY_CREATE,
+                  StandardWatchEventKinds.ENTRY_DELETE,
+                  StandardWatchEventKinds.ENTRY_MODIFY);
+      _dirs.put(key, prefix);
+      File[] files = dir.listFiles();
+      for (File f : files == null ? new File[0] : files) {
+        String name = prefix + f.getName();
+        if (f.isDirectory() && !name.equals(".gitlet") && !Files.isSymbolicLink(f.toPath())) {
+          watch(f, name + "/", fresh);
+        } else if (fresh && f.isFile()) {
+          changed(name, true);
+        }
+      }
+    }
+  }
+}
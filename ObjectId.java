@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class representing the SHA1 id of a stored object: a commit, tree or blob.
+ *
+ * <p>An id is held as its 20 raw bytes in three primitive fields rather than as a 40-character
+ * hexadecimal String, so it takes a third of the memory, hashes without looking at its digits and
+ * compares with three comparisons. It is read from and written to encoded objects, the index and
+ * the commit graph in raw form, and converted to hexadecimal only where an id is shown or names a
+ * file.
+ *
+ * @author Randy Nguyen
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+
+  /** Bytes in a raw SHA1. */
+  public static final int LENGTH = 20;
+
+  /** First eight bytes of the id. */
+  private final long _high;
+
+  /** Next eight bytes of the id. */
+  private final long _middle;
+
+  /** Last four bytes of the id. */
+  private final int _low;
+
+  /**
+   * The id whose raw bytes are HIGH, MIDDLE and LOW, most significant first.
+   *
+   * @param high first eight bytes
+   * @param middle next eight bytes
+   * @param low last four bytes
+   */
+  private ObjectId(long high, long middle, int low) {
+    _high = high;
+    _middle = middle;
+    _low = low;
+  }
+
+  /**
+   * Returns the id spelled by the 40 hexadecimal digits HEX, in either case, or null if HEX is
+   * null. Parses the digits in place, without an intermediate array.
+   *
+   * @param hex a sha1 in hexadecimal, or null
+   * @return ObjectId
+   */
+  public static ObjectId fromHex(String hex) {
+    if (hex == null) {
+      return null;
+    } else if (hex.length() != 2 * LENGTH) {
+      throw new IllegalArgumentException("Malformed object id " + hex + ".");
+    }
+    return new ObjectId(digits(hex, 0, 16), digits(hex, 16, 32), (int) digits(hex, 32, 40));
+  }
+
+  /**
+   * Returns the value of the hexadecimal digits of HEX from FROM to TO, at most 16 of them.
+   *
+   * @param hex hexadecimal digits
+   * @param from index of the first
+   * @param to index after the last
+   * @return long value
+   */
+  private static long digits(String hex, int from, int to) {
+    long result = 0;
+    for (int i = from; i < to; i += 1) {
+      int d = Character.digit(hex.charAt(i), 16);
+      if (d < 0) {
+        throw new IllegalArgumentException("Malformed object id " + hex + ".");
+      }
+      result = (result << 4) | d;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the id whose raw bytes are the LENGTH bytes of BUF starting at INDEX, leaving the
+   * position of BUF alone.
+   *
+   * @param buf bytes
+   * @param index index of the first
+   * @return ObjectId
+   */
+  public static ObjectId fromBuffer(ByteBuffer buf, int index) {
+    return new ObjectId(buf.getLong(index), buf.getLong(index + 8), buf.getInt(index + 16));
+  }
+
+  /**
+   * Reads a raw id from IN.
+   *
+   * @param in source
+   * @return ObjectId
+   * @throws IOException on read errors
+   */
+  public static ObjectId read(DataInput in) throws IOException {
+    return new ObjectId(in.readLong(), in.readLong(), in.readInt());
+  }
+
+  /**
+   * Writes the raw bytes of this id to OUT.
+   *
+   * @param out destination
+   * @throws IOException on write errors
+   */
+  public void write(DataOutput out) throws IOException {
+    out.writeLong(_high);
+    out.writeLong(_middle);
+    out.writeInt(_low);
+  }
+
+  /** Lower-case hexadecimal digits, by value. */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * Returns this id as 40 lower-case hexadecimal digits.
+   *
+   * @return String
+   */
+  @Override
+  public String toString() {
+    char[] result = new char[2 * LENGTH];
+    for (int i = 0; i < 16; i += 1) {
+      result[i] = HEX_DIGITS[(int) (_high >>> (60 - 4 * i)) & 0xf];
+      result[16 + i] = HEX_DIGITS[(int) (_middle >>> (60 - 4 * i)) & 0xf];
+    }
+    for (int i = 0; i < 8; i += 1) {
+      result[32 + i] = HEX_DIGITS[(_low >>> (28 - 4 * i)) & 0xf];
+    }
+    return new String(result);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ObjectId)) {
+      return false;
+    }
+    ObjectId other = (ObjectId) obj;
+    return _high == other._high && _middle == other._middle && _low == other._low;
+  }
+
+  /**
+   * Returns the first four bytes of this id, which are as evenly spread as any.
+   *
+   * @return int hash
+   */
+  @Override
+  public int hashCode() {
+    return (int) (_high >>> 32);
+  }
+
+  /**
+   * Compares this id with OTHER as unsigned bytes, which orders ids as their hexadecimal forms do.
+   *
+   * @param other another id
+   * @return int comparison
+   */
+  @Override
+  public int compareTo(ObjectId other) {
+    int c = Long.compareUnsigned(_high, other._high);
+    if (c == 0) {
+      c = Long.compareUnsigned(_middle, other._middle);
+    }
+    return c != 0 ? c : Integer.compareUnsigned(_low, other._low);
+  }
+}
@@ -0,0 +1,736 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Class representing pack files: the stored objects of one folder (blobs or commits) concatenated
+ * into a single file, along with a sorted, memory-mapped index of their SHA1s so that a lookup is
+ * a binary search instead of an open of its own file.
+ *
+ * <p>The packs of a folder live in its "pack" subdirectory as pack-X.pack and pack-X.idx pairs.
+ * An index is only written once its pack is complete, so a pack without one is ignored. Objects
+ * are looked up in the packs first and then as loose files. A loose object is written to the
+ * subdirectory of its folder named by the first FANOUT digits of its SHA1, so that an abbreviated
+ * id names a single small directory to list; those written by older versions directly in the
+ * folder are still found there until they are repacked.
+ *
+ * @author Randy Nguyen
+ */
+public class Pack {
+
+  /** Name of the subdirectory of an object folder holding its packs. */
+  static final String DIR = "pack";
+
+  /** Leading int of every index file ("GIDX"). */
+  private static final int MAGIC = 0x47494458;
+
+  /** Version of the pack and index format. */
+  private static final int VERSION = 1;
+
+  /** Bytes in the index header: magic, version and entry count. */
+  private static final int HEADER = 12;
+
+  /** Bytes in a raw SHA1. */
+  private static final int ID = 20;
+
+  /** Hex digits of a SHA1 naming the subdirectory of its loose object. */
+  private static final int FANOUT = 2;
+
+  /** Bytes in an index entry: the raw SHA1, then the offset and length in the pack. */
+  private static final int ENTRY = ID + 16;
+
+  /** Largest pack written, so that a whole pack can be mapped at once. */
+  private static final long MAX_PACK = Integer.MAX_VALUE;
+
+  /** Packs already opened in this process, by the folder they belong to. */
+  private static final Map<File, List<Pack>> OPEN = new HashMap<>();
+
+  /** The pack file. */
+  private final File _file;
+
+  /** The index file. */
+  private final File _idx;
+
+  /** The mapped contents of the pack. */
+  private final MappedByteBuffer _data;
+
+  /** The mapped contents of the index. */
+  private final MappedByteBuffer _index;
+
+  /** Number of objects in this pack. */
+  private final int _count;
+
+  /**
+   * Maps the pack and index file named by the given index file.
+   *
+   * @param idx the index file
+   * @throws IOException in event of abnormal files
+   */
+  private Pack(File idx) throws IOException {
+    String name = idx.getName();
+    _idx = idx;
+    _file = new File(idx.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+    _index = map(idx);
+    _data = map(_file);
+    if (_index.getInt(0) != MAGIC || _index.getInt(4) != VERSION) {
+      throw Utils.error("Unsupported pack index %s.", name);
+    }
+    _count = _index.getInt(8);
+  }
+
+  /**
+   * Returns the whole file F mapped read-only.
+   *
+   * @param f the file to map
+   * @return MappedByteBuffer its contents
+   * @throws IOException in event of abnormal files
+   */
+  private static MappedByteBuffer map(File f) throws IOException {
+    try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    }
+  }
+
+  /**
+   * Returns the packs of the given object folder, opening them the first time they are needed.
+   *
+   * @param folder an object folder
+   * @return List<Pack> its packs
+   */
+  static synchronized List<Pack> packs(File folder) {
+    List<Pack> result = OPEN.get(folder);
+    if (result == null) {
+      result = new ArrayList<>();
+      for (File idx : indexes(folder)) {
+        try {
+          result.add(new Pack(idx));
+        } catch (IOException excp) {
+          throw new IllegalArgumentException(excp.getMessage());
+        }
+      }
+      OPEN.put(folder, result);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the index files of the packs of the given object folder, in order.
+   *
+   * @param folder an object folder
+   * @return List<File> index files
+   */
+  private static List<File> indexes(File folder) {
+    File[] idxs = Utils.join(folder, DIR).listFiles((dir, name) -> name.endsWith(".idx"));
+    if (idxs == null) {
+      return new ArrayList<>();
+    }
+    Arrays.sort(idxs);
+    return Arrays.asList(idxs);
+  }
+
+  /**
+   * Forgets the opened packs of every folder whose packs have changed since they were opened, so
+   * that a long-running process sees packs written by others. Unchanged packs stay mapped.
+   */
+  static synchronized void clearCache() {
+    OPEN.entrySet()
+        .removeIf(
+            open -> {
+              List<File> opened = new ArrayList<>();
+              for (Pack p : open.getValue()) {
+                opened.add(p._idx);
+              }
+              return !opened.equals(indexes(open.getKey()));
+            });
+  }
+
+  /**
+   * Returns a stream over the decoded contents of the object with the given SHA1 in FOLDER,
+   * looking in its packs before its loose files. The caller closes it.
+   *
+   * @param folder an object folder
+   * @param id the sha1 of an object
+   * @return InputStream the decoded contents
+   */
+  static InputStream open(File folder, String id) {
+    return Utils.openStored(openRaw(folder, id), id);
+  }
+
+  /**
+   * Returns a stream over the stored, still encoded bytes of the object with the given SHA1 in
+   * FOLDER, looking in its packs before its loose files. The caller closes it.
+   *
+   * @param folder an object folder
+   * @param id the sha1 of an object
+   * @return InputStream the stored bytes
+   */
+  static InputStream openRaw(File folder, String id) {
+    for (Pack p : packs(folder)) {
+      ByteBuffer entry = p.find(id);
+      if (entry != null) {
+        return new BufferInput(entry);
+      }
+    }
+    try {
+      return new FileInputStream(loose(folder, id));
+    } catch (IOException excp) {
+      ByteBuffer entry = repacked(folder, id);
+      if (entry == null) {
+        throw new IllegalArgumentException(excp.getMessage());
+      }
+      return new BufferInput(entry);
+    }
+  }
+
+  /**
+   * Returns the stored, still encoded bytes of the object with the given SHA1 in FOLDER: its
+   * entry in a pack, or its loose file mapped into memory, whose descriptor is closed at once.
+   *
+   * @param folder an object folder
+   * @param id the sha1 of an object
+   * @return ByteBuffer the stored bytes
+   */
+  static ByteBuffer map(File folder, String id) {
+    for (Pack p : packs(folder)) {
+      ByteBuffer entry = p.find(id);
+      if (entry != null) {
+        return entry;
+      }
+    }
+    File loose = loose(folder, id);
+    try (FileChannel channel = FileChannel.open(loose.toPath(), StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException excp) {
+      ByteBuffer entry = repacked(folder, id);
+      if (entry == null) {
+        throw new IllegalArgumentException(excp.getMessage());
+      }
+      return entry;
+    }
+  }
+
+  /**
+   * Returns the entry of the object with the given SHA1 in the packs of FOLDER as they are now,
+   * or null if there is none. A walk holding no lock calls it when a loose object is gone, since
+   * a repack may have moved it into a pack opened after the walk began.
+   *
+   * @param folder an object folder
+   * @param id the sha1 of an object
+   * @return ByteBuffer the stored bytes, or null
+   */
+  private static ByteBuffer repacked(File folder, String id) {
+    synchronized (Pack.class) {
+      OPEN.remove(folder);
+    }
+    for (Pack p : packs(folder)) {
+      ByteBuffer entry = p.find(id);
+      if (entry != null) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns true iff FOLDER holds an object with the given SHA1, packed or loose.
+   *
+   * @param folder an object folder
+   * @param id the sha1 of an object
+   * @return boolean
+   */
+  static boolean contains(File folder, String id) {
+    for (Pack p : packs(folder)) {
+      if (p.find(id) != null) {
+        return true;
+      }
+    }
+    return loose(folder, id).isFile();
+  }
+
+  /**
+   * Returns the file to write the loose object with the given SHA1 in FOLDER to, creating its
+   * subdirectory if need be.
+   *
+   * @param folder an object folder
+   * @param id the sha1 of an object
+   * @return File
+   */
+  static File newLoose(File folder, String id) {
+    File dir = Utils.join(folder, id.substring(0, FANOUT));
+    dir.mkdir();
+    return Utils.join(dir, id);
+  }
+
+  /**
+   * Returns the loose file of the object with the given SHA1 in FOLDER: the one in its
+   * subdirectory if there is one, else the one an older version would have written.
+   *
+   * @param folder an object folder
+   * @param id the sha1 of an object
+   * @return File
+   */
+  private static File loose(File folder, String id) {
+    File f = Utils.join(folder, id.substring(0, FANOUT), id);
+    return f.isFile() ? f : Utils.join(folder, id);
+  }
+
+  /**
+   * Returns the SHA1s of every object in FOLDER, packed or loose, in lexicographic order.
+   *
+   * @param folder an object folder
+   * @return List<String> the ids
+   */
+  static List<String> ids(File folder) {
+    TreeSet<String> result = new TreeSet<>(looseIds(folder));
+    for (Pack p : packs(folder)) {
+      for (int i = 0; i < p._count; i += 1) {
+        result.add(p.idAt(i));
+      }
+    }
+    return new ArrayList<>(result);
+  }
+
+  /**
+   * Returns the first LIMIT SHA1s, in lexicographic order, of the objects in FOLDER whose SHA1
+   * starts with PREFIX. Each pack is binary searched; among the loose objects, only the
+   * subdirectories PREFIX may name are listed, along with the folder itself for those written by
+   * older versions.
+   *
+   * @param folder an object folder
+   * @param prefix the start of a sha1
+   * @param limit most ids to return
+   * @return List<String> the ids
+   */
+  static List<String> matching(File folder, String prefix, int limit) {
+    TreeSet<String> result = new TreeSet<>();
+    for (Pack p : packs(folder)) {
+      int start = p.lowerBound(prefix);
+      for (int i = start; i < p._count && i - start < limit; i += 1) {
+        String id = p.idAt(i);
+        if (!id.startsWith(prefix)) {
+          break;
+        }
+        result.add(id);
+      }
+    }
+    String[] names = folder.list();
+    for (String name : names == null ? new String[0] : names) {
+      if (name.length() == Utils.UID_LENGTH && name.startsWith(prefix)) {
+        result.add(name);
+      } else if (name.length() == FANOUT
+          && (prefix.startsWith(name) || name.startsWith(prefix))) {
+        String[] loose =
+            Utils.join(folder, name)
+                .list((dir, id) -> id.length() == Utils.UID_LENGTH && id.startsWith(prefix));
+        if (loose != null) {
+          result.addAll(Arrays.asList(loose));
+        }
+      }
+    }
+    List<String> ids = new ArrayList<>(result);
+    return ids.subList(0, Math.min(limit, ids.size()));
+  }
+
+  /**
+   * Returns the SHA1s of every object in FOLDER, packed or loose, in no particular order. Unlike
+   * ids, the packed ones are not collected first but read from the mapped indexes as the iterator
+   * advances, so only the loose ones are held in memory.
+   *
+   * @param folder an object folder
+   * @return Iterator<String> the ids
+   */
+  static Iterator<String> scan(File folder) {
+    return new Scan(packs(folder), looseIds(folder));
+  }
+
+  /**
+   * Returns the SHA1s of the loose objects in FOLDER, ignoring anything not named by one.
+   *
+   * @param folder an object folder
+   * @return List<String> the ids
+   */
+  private static List<String> looseIds(File folder) {
+    List<String> result = new ArrayList<>();
+    String[] names = folder.list();
+    for (String name : names == null ? new String[0] : names) {
+      if (name.length() == Utils.UID_LENGTH) {
+        result.add(name);
+      } else if (name.length() == FANOUT && Utils.join(folder, name).isDirectory()) {
+        for (String id : Utils.plainFilenamesIn(Utils.join(folder, name))) {
+          if (id.length() == Utils.UID_LENGTH) {
+            result.add(id);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Packs the loose objects and existing packs of the blob, commit and tree folders into new
+   * packs, then removes what was packed. Also packs the branches, sorts the commit graph and
+   * rebuilds the message index from every commit, which repairs an index left stale or torn.
+   *
+   * @throws IOException in event of abnormal files
+   */
+  public static void repack() throws IOException {
+    repack(Blobs.folder());
+    repack(Commit.folder());
+    if (Tree.folder().isDirectory()) {
+      repack(Tree.folder());
+    }
+    Branches.packRefs();
+    Graph.rewrite();
+    Messages.rebuild();
+  }
+
+  /**
+   * Packs the loose objects and existing packs of FOLDER into as few packs as possible. Loose
+   * objects too big to be mapped stay loose. An old pack is then deleted unless a new one was just
+   * written under its name, and so is each packed loose file, along with its fanout directory once
+   * that is empty.
+   *
+   * @param folder an object folder
+   * @throws IOException in event of abnormal files
+   */
+  private static synchronized void repack(File folder) throws IOException {
+    List<Pack> old = packs(folder);
+    TreeMap<String, ByteBuffer> packed = new TreeMap<>();
+    for (Pack p : old) {
+      for (int i = 0; i < p._count; i += 1) {
+        packed.putIfAbsent(p.idAt(i), p.entryAt(i));
+      }
+    }
+    TreeMap<String, File> loose = new TreeMap<>();
+    for (String id : looseIds(folder)) {
+      File f = loose(folder, id);
+      if (f.length() < MAX_PACK) {
+        loose.put(id, f);
+      }
+    }
+    if (loose.isEmpty() && old.size() <= 1) {
+      return;
+    }
+    File dir = Utils.join(folder, DIR);
+    dir.mkdirs();
+    TreeSet<String> ids = new TreeSet<>(packed.keySet());
+    ids.addAll(loose.keySet());
+    List<String> batch = new ArrayList<>();
+    Set<String> written = new HashSet<>();
+    long size = 0;
+    for (String id : ids) {
+      long len = packed.containsKey(id) ? packed.get(id).remaining() : loose.get(id).length();
+      if (size + len > MAX_PACK) {
+        written.add(write(dir, batch, packed, loose));
+        batch.clear();
+        size = 0;
+      }
+      batch.add(id);
+      size += len;
+    }
+    written.add(write(dir, batch, packed, loose));
+    OPEN.remove(folder);
+    for (Pack p : old) {
+      if (!written.contains(p._file.getName())) {
+        p._idx.delete();
+        p._file.delete();
+      }
+    }
+    for (File f : loose.values()) {
+      f.delete();
+      File parent = f.getParentFile();
+      if (!parent.equals(folder)) {
+        parent.delete();
+      }
+    }
+  }
+
+  /**
+   * Writes the objects named by the sorted list IDS into a new pack in DIR, taking each from
+   * PACKED or, failing that, LOOSE, and returns the name of its data file, or null if IDS is
+   * empty. The name follows from IDS alone, so repacking the same objects again replaces the same
+   * pack. The index is renamed into place last.
+   *
+   * @param dir the pack directory
+   * @param ids the sorted ids to pack
+   * @param packed entries of existing packs
+   * @param loose loose object files
+   * @return String name of the pack file
+   * @throws IOException in event of abnormal files
+   */
+  private static String write(
+      File dir, List<String> ids, Map<String, ByteBuffer> packed, Map<String, File> loose)
+      throws IOException {
+    if (ids.isEmpty()) {
+      return null;
+    }
+    String name = "pack-" + Utils.sha1(String.join("", ids));
+    File data = Utils.join(dir, name + ".pack");
+    File idx = Utils.join(dir, name + ".idx");
+    File dataTmp = Utils.join(dir, name + ".pack.tmp");
+    File idxTmp = Utils.join(dir, name + ".idx.tmp");
+    ByteBuffer index = ByteBuffer.allocate(HEADER + ENTRY * ids.size());
+    index.putInt(MAGIC).putInt(VERSION).putInt(ids.size());
+    try (FileChannel out =
+        FileChannel.open(
+            dataTmp.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      for (String id : ids) {
+        long offset = out.position();
+        ByteBuffer entry = packed.get(id);
+        if (entry != null) {
+          entry = entry.duplicate();
+          while (entry.hasRemaining()) {
+            out.write(entry);
+          }
+        } else {
+          try (FileChannel in = FileChannel.open(loose.get(id).toPath())) {
+            long len = in.size();
+            for (long done = 0; done < len; ) {
+              done += in.transferTo(done, len - done, out);
+            }
+          }
+        }
+        index.put(Utils.fromHex(id)).putLong(offset).putLong(out.position() - offset);
+      }
+      out.force(true);
+    }
+    Files.move(dataTmp.toPath(), data.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    Files.write(idxTmp.toPath(), index.array());
+    Files.move(idxTmp.toPath(), idx.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    return data.getName();
+  }
+
+  /**
+   * Returns the stored bytes of the object with the given SHA1 in this pack, or null if it is not
+   * here. Binary searches the index.
+   *
+   * @param id the sha1 of an object
+   * @return ByteBuffer the stored bytes
+   */
+  private ByteBuffer find(String id) {
+    if (id.length() != Utils.UID_LENGTH) {
+      return null;
+    }
+    byte[] key = Utils.fromHex(id);
+    byte[] probe = new byte[ID];
+    int lo = 0;
+    int hi = _count - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      _index.get(HEADER + mid * ENTRY, probe);
+      int cmp = Arrays.compareUnsigned(probe, key);
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid - 1;
+      } else {
+        return entryAt(mid);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the index of the first object in this pack whose SHA1 is not less than PREFIX, or the
+   * number of objects if there is none. Binary searches the index.
+   *
+   * @param prefix the start of a sha1
+   * @return int index
+   */
+  private int lowerBound(String prefix) {
+    int lo = 0;
+    int hi = _count;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (idAt(mid).compareTo(prefix) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the SHA1 of the Ith object in this pack.
+   *
+   * @param i index
+   * @return String the sha1
+   */
+  private String idAt(int i) {
+    byte[] raw = new byte[ID];
+    _index.get(HEADER + i * ENTRY, raw);
+    return Utils.toHex(raw);
+  }
+
+  /**
+   * Returns the stored bytes of the Ith object in this pack.
+   *
+   * @param i index
+   * @return ByteBuffer the stored bytes
+   */
+  private ByteBuffer entryAt(int i) {
+    int pos = HEADER + i * ENTRY + ID;
+    int offset = (int) _index.getLong(pos);
+    int len = (int) _index.getLong(pos + 8);
+    return _data.slice(offset, len);
+  }
+
+  /** An iterator over the ids of some packs and loose objects, each id returned once. */
+  private static class Scan implements Iterator<String> {
+
+    /** The packs. */
+    private final List<Pack> _packs;
+
+    /** The loose ids. */
+    private final List<String> _loose;
+
+    /** Index of the pack being read, or the number of packs once they have all been read. */
+    private int _pack;
+
+    /** Index of the next id in the pack being read, or in the loose ids after the packs. */
+    private int _index;
+
+    /** The next id to return, or null if there is none. */
+    private String _next;
+
+    /**
+     * An iterator over the ids of PACKS, then of LOOSE.
+     *
+     * @param packs the packs of a folder
+     * @param loose its loose ids
+     */
+    Scan(List<Pack> packs, List<String> loose) {
+      _packs = packs;
+      _loose = loose;
+      advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return _next != null;
+    }
+
+    @Override
+    public String next() {
+      if (_next == null) {
+        throw new NoSuchElementException();
+      }
+      String result = _next;
+      advance();
+      return result;
+    }
+
+    /** Finds the next id not found in an earlier pack. */
+    private void advance() {
+      while (_pack < _packs.size()) {
+        Pack p = _packs.get(_pack);
+        if (_index < p._count) {
+          String id = p.idAt(_index);
+          _index += 1;
+          if (!packed(id, _pack)) {
+            _next = id;
+            return;
+          }
+        } else {
+          _pack += 1;
+          _index = 0;
+        }
+      }
+      while (_index < _loose.size()) {
+        String id = _loose.get(_index);
+        _index += 1;
+        if (!packed(id, _packs.size())) {
+          _next = id;
+          return;
+        }
+      }
+      _next = null;
+    }
+
+    /**
+     * Returns true iff one of the first N packs holds ID.
+     *
+     * @param id the sha1 of an object
+     * @param n number of packs
+     * @return boolean
+     */
+    private boolean packed(String id, int n) {
+      for (int i = 0; i < n; i += 1) {
+        if (_packs.get(i).find(id) != null) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** An InputStream reading the remaining bytes of a ByteBuffer. */
+  private static class BufferInput extends InputStream {
+
+    /** The bytes still to be read. */
+    private final ByteBuffer _buf;
+
+    /**
+     * A stream over the remaining bytes of BUF.
+     *
+     * @param buf the buffer
+     */
+    BufferInput(ByteBuffer buf) {
+      _buf = buf;
+    }
+
+    @Override
+    public int read() {
+      return _buf.hasRemaining() ? _buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!_buf.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, _buf.remaining());
+      _buf.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public byte[] readNBytes(int len) {
+      byte[] result = new byte[Math.min(len, _buf.remaining())];
+      _buf.get(result);
+      return result;
+    }
+
+    @Override
+    public int available() {
+      return _buf.remaining();
+    }
+  }
+}
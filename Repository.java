@@ -0,0 +1,1266 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A Gitlet repository, for programs that use Gitlet without going through its command line.
+ *
+ * <p>Each operation runs as one command: it binds the repository to the calling thread, so that
+ * the classes implementing the commands find its folders, and holds both a lock of this process
+ * and a lock on LOCK_FILE. A command that may change the repository holds them exclusively, so it
+ * runs alone among the commands of every process on the repository; one that only reads it, such
+ * as log, find or a diff between commits, shares them with the others that only read. Everything
+ * a command learns about the repository's mutable state (head, index, monitor, commit graph) is
+ * kept in a Session of its own and forgotten when it ends. Commands on different repositories can
+ * run in parallel on different threads; caches keyed by object ids are shared between them.
+ *
+ * <p>Errors are thrown as GitletExceptions whose message is the one the command line prints.
+ *
+ * @author Randy Nguyen
+ */
+public class Repository {
+
+  /** Repositories opened in this process, by absolute working directory. */
+  private static final HashMap<File, Repository> OPEN = new HashMap<>();
+
+  /** The command each thread is running, if any. */
+  private static final ThreadLocal<Session> CURRENT = new ThreadLocal<>();
+
+  /** Number of commits globalLog decodes at once. */
+  private static final int BATCH = 4096;
+
+  /** Name of the file locked by every command that may use .gitlet. */
+  private static final String LOCK_FILE = "lock";
+
+  /** Name of the file locked by reading commands while they extend the caches of .gitlet. */
+  private static final String EXTEND_LOCK_FILE = "lock-extend";
+
+  /** The working directory. */
+  private final File _root;
+
+  /** The .gitlet folder of the working directory. */
+  private final File _gitlet;
+
+  /**
+   * Held in this process exclusively by the commands that may change the repository, and shared
+   * by those that only read it.
+   */
+  private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+  /** The shared lock on LOCK_FILE held for the reading commands of this process, or null. */
+  private FileLock _shared;
+
+  /** Number of reading commands of this process holding _shared. */
+  private int _readers;
+
+  /** Held in this process by a reading command while it extends the caches of .gitlet. */
+  private final ReentrantLock _extending = new ReentrantLock();
+
+  /** What the commands of this process have been sent by the monitor, kept between them. */
+  private final Monitor.View _monitorView = new Monitor.View();
+
+  /** What has been learned about the repository outside of any command. */
+  private final Session _idle = new Session(this, false);
+
+  /**
+   * A repository whose working directory is ROOT.
+   *
+   * @param root an absolute directory
+   */
+  private Repository(File root) {
+    _root = root;
+    _gitlet = Utils.join(root, ".gitlet");
+  }
+
+  /**
+   * Returns the repository whose working directory is ROOT, which need not be initialized yet.
+   * Opening the same directory twice returns the same object.
+   *
+   * @param root a directory
+   * @return Repository
+   */
+  public static synchronized Repository open(File root) {
+    File absolute = root.getAbsoluteFile().toPath().normalize().toFile();
+    return OPEN.computeIfAbsent(absolute, Repository::new);
+  }
+
+  /**
+   * Returns the repository the calling thread is running a command on, or else the one in the
+   * working directory of this process.
+   *
+   * @return Repository
+   */
+  static Repository current() {
+    Session session = CURRENT.get();
+    if (session == null) {
+      return open(new File(System.getProperty("user.dir")));
+    }
+    return session._repo;
+  }
+
+  /**
+   * Returns the command the calling thread is running on this repository, or what has been
+   * learned outside of any command if it is running none.
+   *
+   * @return Session
+   */
+  private Session session() {
+    Session session = CURRENT.get();
+    return session != null && session._repo == this ? session : _idle;
+  }
+
+  /**
+   * Returns the working directory.
+   *
+   * @return File
+   */
+  public File root() {
+    return _root;
+  }
+
+  /**
+   * Returns the .gitlet folder.
+   *
+   * @return File
+   */
+  File gitletFolder() {
+    return _gitlet;
+  }
+
+  /**
+   * Returns true iff the repository has been initialized.
+   *
+   * @return boolean
+   */
+  public boolean exists() {
+    return _gitlet.isDirectory();
+  }
+
+  /**
+   * Returns what the running command has learned about the index.
+   *
+   * @return Stage
+   */
+  Stage stage() {
+    return session()._stage;
+  }
+
+  /**
+   * Returns what the running command has learned about the branches.
+   *
+   * @return Branches
+   */
+  Branches branches() {
+    return session()._branches;
+  }
+
+  /**
+   * Returns what the running command has learned from the monitor.
+   *
+   * @return Monitor
+   */
+  Monitor monitor() {
+    return session()._monitor;
+  }
+
+  /**
+   * Returns what the commands of this process have been sent by the monitor.
+   *
+   * @return Monitor.View
+   */
+  Monitor.View monitorView() {
+    return _monitorView;
+  }
+
+  /**
+   * Returns what the running command has mapped of the commit graph.
+   *
+   * @return Graph
+   */
+  Graph graph() {
+    return session()._graph;
+  }
+
+  /** A command, run by call. */
+  interface Action<T> {
+
+    /**
+     * Runs the command.
+     *
+     * @return T its result
+     * @throws IOException in event of abnormal files
+     */
+    T run() throws IOException;
+  }
+
+  /** A command running on a repository, with what it has learned about its mutable state. */
+  private static class Session {
+
+    /** The repository. */
+    private final Repository _repo;
+
+    /** Whether the command only reads the repository. */
+    private final boolean _reading;
+
+    /** Whether the command is running with its locks held, rather than resumed by a walk. */
+    private boolean _locked;
+
+    /** What the command has learned about the index. */
+    private final Stage _stage = new Stage();
+
+    /** What the command has learned about the branches. */
+    private final Branches _branches = new Branches();
+
+    /** What the command has learned from the monitor. */
+    private final Monitor _monitor = new Monitor();
+
+    /** What the command has mapped of the commit graph. */
+    private final Graph _graph = new Graph();
+
+    /**
+     * A command on REPO that only reads it if READING.
+     *
+     * @param repo the repository
+     * @param reading whether it only reads
+     */
+    Session(Repository repo, boolean reading) {
+      _repo = repo;
+      _reading = reading;
+    }
+  }
+
+  /**
+   * Runs ACTION as one command on this repository that may change it and returns its result,
+   * writing the index back once it is done. Runs it as part of the running command if the calling
+   * thread is already running one on this repository.
+   *
+   * @param action a command
+   * @param <T> type of its result
+   * @return T its result
+   * @throws IOException in event of abnormal files
+   */
+  <T> T call(Action<T> action) throws IOException {
+    return run(action, false);
+  }
+
+  /**
+   * Runs ACTION as one command on this repository that only reads it and returns its result. It
+   * may run alongside other such commands, and never writes the index. Runs it as part of the
+   * running command if the calling thread is already running one on this repository.
+   *
+   * @param action a command
+   * @param <T> type of its result
+   * @return T its result
+   * @throws IOException in event of abnormal files
+   */
+  <T> T read(Action<T> action) throws IOException {
+    return run(action, true);
+  }
+
+  /**
+   * Runs ACTION as one command on this repository, which only reads it if READING, and returns
+   * its result.
+   *
+   * @param action a command
+   * @param reading whether it only reads the repository
+   * @param <T> type of its result
+   * @return T its result
+   * @throws IOException in event of abnormal files
+   */
+  private <T> T run(Action<T> action, boolean reading) throws IOException {
+    Session outer = CURRENT.get();
+    if (outer != null && outer._repo == this) {
+      if (outer._reading && !reading) {
+        throw new IllegalStateException("A command reading the repository cannot change it.");
+      }
+      return action.run();
+    }
+    Lock lock = reading ? _lock.readLock() : _lock.writeLock();
+    lock.lock();
+    Session session = new Session(this, reading);
+    session._locked = true;
+    CURRENT.set(session);
+    try {
+      Pack.clearCache();
+      if (!exists()) {
+        return action.run();
+      } else if (reading) {
+        share();
+        try {
+          return action.run();
+        } finally {
+          unshare();
+        }
+      }
+      try (FileChannel lockFile =
+          FileChannel.open(
+              Utils.join(_gitlet, LOCK_FILE).toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE)) {
+        FileLock held = lockFile.lock();
+        try {
+          T result = action.run();
+          Graph.compact();
+          Stage.write();
+          return result;
+        } finally {
+          held.release();
+        }
+      }
+    } finally {
+      session._locked = false;
+      CURRENT.set(outer);
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Runs ACTION as the next step of a walk over the repository, such as log or globalLog, with
+   * the reading command SNAPSHOT that began it bound again, and returns its result. The step sees
+   * the commit graph the walk mapped then and takes no lock: the objects it reads never change,
+   * and extend takes the shared lock if the step needs to add to a file. Runs it as part of the
+   * running command instead if the calling thread is running one on this repository.
+   *
+   * @param snapshot the command that began the walk
+   * @param action a step of the walk
+   * @param <T> type of its result
+   * @return T its result
+   * @throws IOException in event of abnormal files
+   */
+  private <T> T resume(Session snapshot, Action<T> action) throws IOException {
+    Session outer = CURRENT.get();
+    if (outer != null && outer._repo == this) {
+      return action.run();
+    }
+    CURRENT.set(snapshot);
+    try {
+      return action.run();
+    } finally {
+      CURRENT.set(outer);
+    }
+  }
+
+  /**
+   * Takes a share of the lock on LOCK_FILE for a reading command, locking it if no other reading
+   * command of this process holds it yet.
+   *
+   * @throws IOException in event of abnormal files
+   */
+  private synchronized void share() throws IOException {
+    if (_readers == 0) {
+      FileChannel lockFile =
+          FileChannel.open(
+              Utils.join(_gitlet, LOCK_FILE).toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      try {
+        _shared = lockFile.lock(0, Long.MAX_VALUE, true);
+      } catch (IOException | RuntimeException excp) {
+        lockFile.close();
+        throw excp;
+      }
+    }
+    _readers += 1;
+  }
+
+  /**
+   * Gives back a share of the lock on LOCK_FILE, releasing it once no reading command of this
+   * process holds it.
+   *
+   * @throws IOException in event of abnormal files
+   */
+  private synchronized void unshare() throws IOException {
+    _readers -= 1;
+    if (_readers == 0) {
+      _shared.release();
+      _shared.channel().close();
+      _shared = null;
+    }
+  }
+
+  /**
+   * Runs ACTION, which adds to a file that commands only reading the repository may extend as
+   * well, such as the commit graph or the message index, and returns its result. A command that
+   * may change the repository runs it at once, being alone; a reading one first waits for the
+   * others, of any process, doing the same, so ACTION must check again whether it is needed. A
+   * step of a walk, which holds no lock, takes the shared lock first.
+   *
+   * @param action what to run
+   * @param <T> type of its result
+   * @return T its result
+   */
+  <T> T extend(Action<T> action) {
+    try {
+      Session session = session();
+      if (!session._reading || _extending.isHeldByCurrentThread()) {
+        return action.run();
+      } else if (!session._locked && _lock.getReadHoldCount() == 0) {
+        _lock.readLock().lock();
+        try {
+          share();
+          try {
+            return extend(action);
+          } finally {
+            unshare();
+          }
+        } finally {
+          _lock.readLock().unlock();
+        }
+      }
+      _extending.lock();
+      try (FileChannel lockFile =
+          FileChannel.open(
+              Utils.join(_gitlet, EXTEND_LOCK_FILE).toPath(),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE)) {
+        FileLock held = lockFile.lock();
+        try {
+          return action.run();
+        } finally {
+          held.release();
+        }
+      } finally {
+        _extending.unlock();
+      }
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+  }
+
+  /**
+   * Creates the repository, with one branch, main, holding the initial commit.
+   *
+   * @throws IOException in event of abnormal files
+   */
+  public void init() throws IOException {
+    call(
+        () -> {
+          if (exists()) {
+            throw Utils.error(
+                "A Gitlet version-control system already exists in the current directory.");
+          }
+          Command.init();
+          return null;
+        });
+  }
+
+  /**
+   * Stages the working file NAME for addition.
+   *
+   * @param name file name
+   * @throws IOException in event of abnormal files
+   */
+  public void add(String name) throws IOException {
+    call(
+        () -> {
+          Stage.add(name);
+          return null;
+        });
+  }
+
+  /**
+   * Unstages the file NAME, and stages it for removal if it is tracked.
+   *
+   * @param name file name
+   * @throws IOException in event of abnormal files
+   */
+  public void rm(String name) throws IOException {
+    call(
+        () -> {
+          Stage.rm(name);
+          return null;
+        });
+  }
+
+  /**
+   * Commits the staged changes with MESSAGE and returns the id of the new commit.
+   *
+   * @param message commit message
+   * @return String commit sha1
+   * @throws IOException in event of abnormal files
+   */
+  public String commit(String message) throws IOException {
+    return call(() -> Commit.commit(message, null).toString());
+  }
+
+  /**
+   * Returns the branches, staged changes and state of the working directory.
+   *
+   * @return Status
+   * @throws IOException in event of abnormal files
+   */
+  public Status status() throws IOException {
+    return call(Status::new);
+  }
+
+  /**
+   * Returns the history of the head commit, following first parents.
+   *
+   * @return Iterator<LogEntry> newest first
+   * @throws IOException in event of abnormal files
+   */
+  public Iterator<LogEntry> log() throws IOException {
+    return log(-1, null, null, null);
+  }
+
+  /**
+   * Returns the history of the head commit, following first parents, keeping at most LIMIT
+   * commits made no earlier than SINCE and no later than UNTIL that changed the file PATH, which
+   * is normalized as by Stage.trackedName. Any of them may be -1 or null for no bound. Commits
+   * are read as the iterator advances, each step resuming the reading command that began the
+   * walk, and the walk stops at the first commit older than SINCE.
+   *
+   * @param limit most commits, or -1
+   * @param since earliest time, or null
+   * @param until latest time, or null
+   * @param path file name, or null
+   * @return Iterator<LogEntry> newest first
+   * @throws IOException in event of abnormal files
+   */
+  public Iterator<LogEntry> log(int limit, Instant since, Instant until, String path)
+      throws IOException {
+    return read(
+        () -> {
+          String name = path == null ? null : Stage.trackedName(path);
+          return new History(session(), Branches.headId(), limit, since, until, name);
+        });
+  }
+
+  /**
+   * Returns every commit ever made, in no particular order.
+   *
+   * @return Iterator<LogEntry>
+   * @throws IOException in event of abnormal files
+   */
+  public Iterator<LogEntry> globalLog() throws IOException {
+    return globalLog(false);
+  }
+
+  /**
+   * Returns every commit ever made, newest first if SORTED and otherwise in no particular order.
+   * Commits are read BATCH at a time as the iterator advances, each batch in parallel resuming the
+   * reading command that began the walk, and only their messages, times and parents are decoded.
+   * Unless SORTED, ids are also read from the pack indexes as needed, so memory does not grow with
+   * the history.
+   *
+   * @param sorted whether to order the commits by time
+   * @return Iterator<LogEntry>
+   * @throws IOException in event of abnormal files
+   */
+  public Iterator<LogEntry> globalLog(boolean sorted) throws IOException {
+    return read(() -> globalLog(session(), sorted));
+  }
+
+  /**
+   * Returns every commit ever made as for globalLog, the walk resuming SNAPSHOT.
+   *
+   * @param snapshot the reading command that begins the walk
+   * @param sorted whether to order the commits by time
+   * @return Iterator<LogEntry>
+   */
+  private Iterator<LogEntry> globalLog(Session snapshot, boolean sorted) {
+    Iterator<ObjectId> ids;
+    if (sorted) {
+      int[] order = Graph.newestFirst(Pack.scan(Commit.folder()));
+      ids =
+          new Iterator<ObjectId>() {
+            private int _next;
+
+            @Override
+            public boolean hasNext() {
+              return _next < order.length;
+            }
+
+            @Override
+            public ObjectId next() {
+              _next += 1;
+              return Graph.id(order[_next - 1]);
+            }
+          };
+    } else {
+      Iterator<String> names = Pack.scan(Commit.folder());
+      ids =
+          new Iterator<ObjectId>() {
+            @Override
+            public boolean hasNext() {
+              return names.hasNext();
+            }
+
+            @Override
+            public ObjectId next() {
+              return ObjectId.fromHex(names.next());
+            }
+          };
+    }
+    return new Iterator<LogEntry>() {
+      private Iterator<LogEntry> _batch = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        return _batch.hasNext() || ids.hasNext();
+      }
+
+      @Override
+      public LogEntry next() {
+        if (!_batch.hasNext()) {
+          _batch = headers(snapshot, ids).iterator();
+        }
+        return _batch.next();
+      }
+    };
+  }
+
+  /**
+   * Returns the log entries of the next BATCH commits of IDS, decoding them in parallel. IDS is
+   * advanced while the walk SNAPSHOT is bound.
+   *
+   * @param snapshot the reading command that began the walk
+   * @param ids commit sha1s
+   * @return List<LogEntry>
+   */
+  private List<LogEntry> headers(Session snapshot, Iterator<ObjectId> ids) {
+    try {
+      return resume(
+          snapshot,
+          () -> {
+            List<ObjectId> batch = new ArrayList<>(BATCH);
+            while (batch.size() < BATCH && ids.hasNext()) {
+              batch.add(ids.next());
+            }
+            return parallel(batch, id -> new LogEntry(id, Commit.readHeader(id)));
+          });
+    } catch (IOException excp) {
+      throw new UncheckedIOException(excp);
+    }
+  }
+
+  /**
+   * Returns the results of ACTION on each of ITEMS, in order, computed in parallel on the common
+   * fork-join pool while bound to the running command. Must be called by a running command, and
+   * ACTION must not change the repository's own state.
+   *
+   * @param items inputs
+   * @param action what to compute
+   * @param <T> type of the inputs
+   * @param <R> type of the results
+   * @return List<R> results
+   */
+  <T, R> List<R> parallel(List<T> items, Function<T, R> action) {
+    Session session = session();
+    return items.parallelStream()
+        .map(item -> bound(session, action, item))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Returns the result of ACTION on ITEM, computed with the command SESSION bound to the calling
+   * thread.
+   *
+   * @param session a running command
+   * @param action what to compute
+   * @param item input
+   * @param <T> type of the input
+   * @param <R> type of the result
+   * @return R result
+   */
+  private static <T, R> R bound(Session session, Function<T, R> action, T item) {
+    Session outer = CURRENT.get();
+    CURRENT.set(session);
+    try {
+      return action.apply(item);
+    } finally {
+      CURRENT.set(outer);
+    }
+  }
+
+  /**
+   * Writes to OUT, as a unified diff, the changes in the working directory to the files staged
+   * for the next commit. Working files whose stat data still matches the index are not read.
+   *
+   * @param out destination
+   * @throws IOException in event of abnormal files
+   */
+  public void diff(OutputStream out) throws IOException {
+    call(
+        () -> {
+          for (String name : Stage.snapshot().keySet()) {
+            ObjectId staged = Stage.stagedId(name);
+            ObjectId working = Stage.workingId(name);
+            if (!staged.equals(working)) {
+              File file = Utils.join(Command.cwd(), name);
+              byte[] contents = working == null ? null : Files.readAllBytes(file.toPath());
+              Diff.file(out, name, Diff.blob(staged), contents);
+            }
+          }
+          return null;
+        });
+  }
+
+  /**
+   * Writes to OUT, as a unified diff, the changes staged for the next commit.
+   *
+   * @param out destination
+   * @throws IOException in event of abnormal files
+   */
+  public void diffStaged(OutputStream out) throws IOException {
+    call(
+        () -> {
+          Diff.files(out, Branches.headCommit().getFiles(), Stage.snapshot());
+          return null;
+        });
+  }
+
+  /**
+   * Writes to OUT, as a unified diff, the changes from the commit FROM to the commit TO, either of
+   * which may be abbreviated. Directories with the same tree in both are skipped.
+   *
+   * @param from commit sha1
+   * @param to commit sha1
+   * @param out destination
+   * @throws IOException in event of abnormal files
+   */
+  public void diff(String from, String to, OutputStream out) throws IOException {
+    read(
+        () -> {
+          TreeMap<String, ObjectId> before = new TreeMap<>();
+          TreeMap<String, ObjectId> after = new TreeMap<>();
+          Commit.changes(Commit.resolve(from), Commit.resolve(to), before, after);
+          Diff.files(out, before, after);
+          return null;
+        });
+  }
+
+  /**
+   * Returns the ids of the commits whose message is MESSAGE.
+   *
+   * @param message commit message
+   * @return List<String> commit sha1s
+   * @throws IOException in event of abnormal files
+   */
+  public List<String> find(String message) throws IOException {
+    return read(() -> Messages.find(message));
+  }
+
+  /**
+   * Returns the full id of the commit whose id is, or starts with, ID.
+   *
+   * @param id commit sha1, possibly abbreviated
+   * @return String commit sha1
+   * @throws IOException in event of abnormal files
+   */
+  public String resolve(String id) throws IOException {
+    return read(() -> Commit.resolve(id).toString());
+  }
+
+  /**
+   * Creates the branch NAME at the head commit.
+   *
+   * @param name branch name
+   * @throws IOException in event of abnormal files
+   */
+  public void branch(String name) throws IOException {
+    call(
+        () -> {
+          Branches.branch(name);
+          return null;
+        });
+  }
+
+  /**
+   * Deletes the branch NAME.
+   *
+   * @param name branch name
+   * @throws IOException in event of abnormal files
+   */
+  public void removeBranch(String name) throws IOException {
+    call(
+        () -> {
+          Branches.removeBranch(name);
+          return null;
+        });
+  }
+
+  /**
+   * Checks out the branch NAME, making it the head branch.
+   *
+   * @param name branch name
+   * @throws IOException in event of abnormal files
+   */
+  public void checkout(String name) throws IOException {
+    call(
+        () -> {
+          Branches.checkoutBranch(name);
+          return null;
+        });
+  }
+
+  /**
+   * Overwrites the working file NAME with its version in the head commit.
+   *
+   * @param name file name
+   * @throws IOException in event of abnormal files
+   */
+  public void checkoutFile(String name) throws IOException {
+    call(
+        () -> {
+          Command.checkoutFile(Branches.headCommit(), name);
+          return null;
+        });
+  }
+
+  /**
+   * Overwrites the working file NAME with its version in the commit ID, which may be abbreviated.
+   *
+   * @param id commit sha1
+   * @param name file name
+   * @throws IOException in event of abnormal files
+   */
+  public void checkoutFile(String id, String name) throws IOException {
+    call(
+        () -> {
+          Commit.checkoutId(id, name, false);
+          return null;
+        });
+  }
+
+  /**
+   * Checks out the commit ID, which may be abbreviated, and moves the head branch to it.
+   *
+   * @param id commit sha1
+   * @throws IOException in event of abnormal files
+   */
+  public void reset(String id) throws IOException {
+    call(
+        () -> {
+          Commit.checkoutId(id, "", true);
+          return null;
+        });
+  }
+
+  /**
+   * Merges the branch NAME into the head branch.
+   *
+   * @param name branch name
+   * @return MergeResult what was done
+   * @throws IOException in event of abnormal files
+   */
+  public MergeResult merge(String name) throws IOException {
+    return call(() -> Branches.merge(name));
+  }
+
+  /**
+   * Packs the objects and branches of the repository.
+   *
+   * @throws IOException in event of abnormal files
+   */
+  public void repack() throws IOException {
+    call(
+        () -> {
+          Pack.repack();
+          return null;
+        });
+  }
+
+  /** The commits returned by log. */
+  private class History implements Iterator<LogEntry> {
+
+    /** The reading command that began the walk. */
+    private final Session _snapshot;
+
+    /** Id of the next commit to look at, or null once the walk is over. */
+    private ObjectId _walk;
+
+    /** Most commits to return, or -1. */
+    private final int _limit;
+
+    /** Earliest time of the commits to return, or null. */
+    private final Instant _since;
+
+    /** Latest time of the commits to return, or null. */
+    private final Instant _until;
+
+    /** The file the commits returned must change, or null. */
+    private final String _path;
+
+    /** Number of commits returned so far. */
+    private int _count;
+
+    /** The next commit to return, or null if there is none. */
+    private LogEntry _next;
+
+    /**
+     * The history of the commit HEAD, filtered as for log, the walk resuming SNAPSHOT.
+     *
+     * @param snapshot the reading command that begins the walk
+     * @param head commit sha1
+     * @param limit most commits, or -1
+     * @param since earliest time, or null
+     * @param until latest time, or null
+     * @param path file name, or null
+     */
+    History(
+        Session snapshot, ObjectId head, int limit, Instant since, Instant until, String path) {
+      _snapshot = snapshot;
+      _walk = head;
+      _limit = limit;
+      _since = since;
+      _until = until;
+      _path = path;
+      _next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return _next != null;
+    }
+
+    @Override
+    public LogEntry next() {
+      if (_next == null) {
+        throw new NoSuchElementException();
+      }
+      LogEntry result = _next;
+      _count += 1;
+      _next = advance();
+      return result;
+    }
+
+    /**
+     * Walks to the next commit to return.
+     *
+     * @return LogEntry the commit, or null if there is none
+     */
+    private LogEntry advance() {
+      if (_limit >= 0 && _count >= _limit) {
+        return null;
+      }
+      try {
+        return resume(
+            _snapshot,
+            () -> {
+              while (_walk != null) {
+                ObjectId id = _walk;
+                if (_path != null && skip(id)) {
+                  continue;
+                }
+                Commit c = Commit.readHeader(id);
+                _walk = c.getParent();
+                if (_since != null && c.getTimestamp().isBefore(_since)) {
+                  _walk = null;
+                } else if ((_until == null || !c.getTimestamp().isAfter(_until))
+                    && (_path == null || changes(id, c, _path))) {
+                  return new LogEntry(id, c);
+                }
+              }
+              return null;
+            });
+      } catch (IOException excp) {
+        throw new UncheckedIOException(excp);
+      }
+    }
+
+    /**
+     * Returns true iff the commit graph shows that the commit ID did not change the file being
+     * followed, so that it need not be read, and moves the walk past it. Ends the walk instead if
+     * the commit is earlier than the one asked for.
+     *
+     * @param id a commit sha1
+     * @return boolean
+     */
+    private boolean skip(ObjectId id) {
+      int pos = Graph.position(id);
+      if (_since != null && Graph.time(pos) < _since.getEpochSecond()) {
+        _walk = null;
+        return true;
+      }
+      if (Graph.mayChange(pos, _path)) {
+        return false;
+      }
+      int parent = Graph.parent(pos);
+      _walk = parent < 0 ? null : Graph.id(parent);
+      return true;
+    }
+
+    /**
+     * Returns true iff the commit C, whose sha1 is ID, adds, removes or changes the file PATH,
+     * compared with its first parent.
+     *
+     * @param id a commit sha1
+     * @param c that commit
+     * @param path file name
+     * @return boolean
+     */
+    private boolean changes(ObjectId id, Commit c, String path) {
+      ObjectId before = null;
+      if (c.getParent() != null) {
+        before = Commit.fileId(c.getParent(), path);
+      }
+      return !Objects.equals(Commit.fileId(id, path), before);
+    }
+  }
+
+  /** The branches, staged changes and state of the working directory. */
+  public static class Status {
+
+    /** Name of the head branch. */
+    private final String _head;
+
+    /** Names of all branches, in order. */
+    private final List<String> _branches;
+
+    /** Files staged for addition, in order. */
+    private final List<String> _staged;
+
+    /** Files staged for removal, in order. */
+    private final List<String> _removed;
+
+    /** Files changed since they were staged or committed, in order. */
+    private final List<String> _modified = new ArrayList<>();
+
+    /** Files deleted though neither staged for removal nor untracked, in order. */
+    private final List<String> _deleted = new ArrayList<>();
+
+    /** Files neither tracked nor staged, in order. */
+    private final List<String> _untracked = new ArrayList<>();
+
+    /** Reads the status of the current repository. */
+    Status() {
+      _head = Branches.headName();
+      _branches = Branches.names();
+      _staged = Stage.staged();
+      _removed = Stage.removed();
+      List<String> files = Monitor.files();
+      TreeMap<String, ObjectId> tracked = Branches.headCommit().getFiles();
+      for (String name : files) {
+        ObjectId expected = Stage.stagedId(name);
+        if (expected != null && !expected.equals(Stage.workingId(name))) {
+          _modified.add(name);
+        }
+      }
+      for (String name : tracked.keySet()) {
+        if (!_removed.contains(name) && !Monitor.exists(name)) {
+          _deleted.add(name);
+        }
+      }
+      for (String name : files) {
+        if (!tracked.containsKey(name) && Stage.stagedId(name) == null) {
+          _untracked.add(name);
+        }
+      }
+    }
+
+    /**
+     * Returns the name of the head branch.
+     *
+     * @return String
+     */
+    public String getHead() {
+      return _head;
+    }
+
+    /**
+     * Returns the names of all branches, in order.
+     *
+     * @return List<String>
+     */
+    public List<String> getBranches() {
+      return _branches;
+    }
+
+    /**
+     * Returns the files staged for addition, in order.
+     *
+     * @return List<String>
+     */
+    public List<String> getStaged() {
+      return _staged;
+    }
+
+    /**
+     * Returns the files staged for removal, in order.
+     *
+     * @return List<String>
+     */
+    public List<String> getRemoved() {
+      return _removed;
+    }
+
+    /**
+     * Returns the files changed since they were staged or committed, in order.
+     *
+     * @return List<String>
+     */
+    public List<String> getModified() {
+      return _modified;
+    }
+
+    /**
+     * Returns the tracked files deleted without being staged for removal, in order.
+     *
+     * @return List<String>
+     */
+    public List<String> getDeleted() {
+      return _deleted;
+    }
+
+    /**
+     * Returns the files neither tracked nor staged, in order.
+     *
+     * @return List<String>
+     */
+    public List<String> getUntracked() {
+      return _untracked;
+    }
+  }
+
+  /** A commit, as shown by the log. */
+  public static class LogEntry {
+
+    /** Id of the commit. */
+    private final ObjectId _id;
+
+    /** The commit. */
+    private final Commit _commit;
+
+    /**
+     * The entry of the commit C, whose id is ID.
+     *
+     * @param id commit sha1
+     * @param c the commit
+     */
+    LogEntry(ObjectId id, Commit c) {
+      _id = id;
+      _commit = c;
+    }
+
+    /**
+     * Returns the id of the commit.
+     *
+     * @return String
+     */
+    public String getId() {
+      return _id.toString();
+    }
+
+    /**
+     * Returns the id of the parent, or null for the initial commit.
+     *
+     * @return String
+     */
+    public String getParent() {
+      return _commit.getParent() == null ? null : _commit.getParent().toString();
+    }
+
+    /**
+     * Returns the id of the merged parent, or null if this is not a merge.
+     *
+     * @return String
+     */
+    public String getMparent() {
+      return _commit.isMerge() ? _commit.getMparent().toString() : null;
+    }
+
+    /**
+     * Returns the time of the commit.
+     *
+     * @return Instant
+     */
+    public Instant getTimestamp() {
+      return _commit.getTimestamp();
+    }
+
+    /**
+     * Returns the message of the commit.
+     *
+     * @return String
+     */
+    public String getMessage() {
+      return _commit.getMessage();
+    }
+  }
+
+  /** What a merge did. */
+  public static class MergeResult {
+
+    /** The ways a merge can end. */
+    public enum Outcome {
+      /** The given branch was already part of the head branch; nothing was done. */
+      ANCESTOR,
+      /** The head branch was behind the given one, which was checked out. */
+      FAST_FORWARD,
+      /** A merge commit was made. */
+      MERGED
+    }
+
+    /** How the merge ended. */
+    private final Outcome _outcome;
+
+    /** Id of the head commit after the merge. */
+    private final String _id;
+
+    /** Whether some files were left with conflict markers. */
+    private final boolean _conflict;
+
+    /**
+     * A merge that ended with OUTCOME, leaving the commit ID at the head.
+     *
+     * @param outcome how it ended
+     * @param id commit sha1
+     * @param conflict whether there were conflicts
+     */
+    MergeResult(Outcome outcome, String id, boolean conflict) {
+      _outcome = outcome;
+      _id = id;
+      _conflict = conflict;
+    }
+
+    /**
+     * Returns how the merge ended.
+     *
+     * @return Outcome
+     */
+    public Outcome getOutcome() {
+      return _outcome;
+    }
+
+    /**
+     * Returns the id of the head commit after the merge.
+     *
+     * @return String
+     */
+    public String getId() {
+      return _id;
+    }
+
+    /**
+     * Returns true iff some files were left with conflict markers.
+     *
+     * @return boolean
+     */
+    public boolean hasConflict() {
+      return _conflict;
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A class running Gitlet commands in a resident process, so that they do not each pay for starting
+ * a JVM and can share the decoded commits, rebuilt blobs and mapped packs of earlier ones.
+ *
+ * <p>The server command listens on the Unix-domain socket SOCKET until it is stopped. A client
+ * sends its working directory, the number of its arguments and then the arguments, each
+ * terminated by a NUL byte, and reads back what the command prints until the server closes the
+ * connection. When SOCKET exists, Main forwards its arguments this way instead of running them
+ * itself; any other client can do the same, e.g. with printf '%s\0%s\0%s\0' "$PWD" 1 status |
+ * nc -U .gitlet/server.sock.
+ *
+ * <p>Connections are served concurrently, each command printing to its own client. Each runs as a
+ * command of the Repository, which lets commands that only read it overlap, keeps a server and
+ * other processes from changing .gitlet at once and forgets what earlier commands learned about
+ * the repository's mutable state; caches keyed by object ids stay warm. A command that fails
+ * sends its client one line, leaving the stack trace on the standard error of the server.
+ *
+ * @author Randy Nguyen
+ */
+public class Server {
+
+  /**
+   * Returns the socket the server of the current repository listens on.
+   *
+   * @return File
+   */
+  static File socket() {
+    return Utils.join(Command.gitletFolder(), "server.sock");
+  }
+
+  /** The channel the server is listening on, or null if it is not running. */
+  private static ServerSocketChannel _listener;
+
+  /**
+   * Sends ARGS to the server running for this repository and copies what the command prints to
+   * standard output. Returns false, having done nothing, if there is no server to send them to.
+   *
+   * @param args command-line arguments
+   * @return boolean whether the command was run by a server
+   */
+  public static boolean forward(String[] args) {
+    if (args.length == 0 || !socket().exists()) {
+      return false;
+    }
+    SocketChannel channel;
+    try {
+      channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+      channel.connect(UnixDomainSocketAddress.of(socket().toPath()));
+    } catch (IOException excp) {
+      return false;
+    }
+    try (channel) {
+      ByteArrayOutputStream request = new ByteArrayOutputStream();
+      request.write(field(Command.cwd().getPath()));
+      request.write(field(Integer.toString(args.length)));
+      for (String arg : args) {
+        request.write(field(arg));
+      }
+      Channels.newOutputStream(channel).write(request.toByteArray());
+      Channels.newInputStream(channel).transferTo(System.out);
+      System.out.flush();
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
+    }
+    return true;
+  }
+
+  /**
+   * Listens on SOCKET, serving each connection on a thread of its own, until stopped by a client
+   * sending "server --stop".
+   *
+   * @param args {'server'}
+   * @throws IOException if the socket cannot be listened on
+   */
+  public static void serve(String[] args) throws IOException {
+    if (args.length > 1 && args[1].equals("--stop")) {
+      System.out.println("No server is running.");
+      return;
+    }
+    socket().delete();
+    ExecutorService pool = Executors.newCachedThreadPool();
+    try (ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      listener.bind(UnixDomainSocketAddress.of(socket().toPath()));
+      _listener = listener;
+      while (true) {
+        SocketChannel client = listener.accept();
+        pool.execute(() -> handle(client));
+      }
+    } catch (AsynchronousCloseException excp) {
+      pool.shutdown();
+    } finally {
+      socket().delete();
+    }
+    try {
+      pool.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException excp) {
+      return;
+    }
+  }
+
+  /**
+   * Reads a request from CLIENT, runs it and sends back what it prints.
+   *
+   * @param client a connection
+   */
+  private static void handle(SocketChannel client) {
+    try (client) {
+      List<String> fields =
+          readFields(new BufferedInputStream(Channels.newInputStream(client)));
+      PrintStream out =
+          new PrintStream(
+              new BufferedOutputStream(Channels.newOutputStream(client)),
+              false,
+              StandardCharsets.UTF_8);
+      if (fields.size() < 2) {
+        out.println("Please enter a command.");
+      } else if (!fields.get(0).equals(Command.cwd().getPath())) {
+        out.println("This server runs commands in " + Command.cwd().getPath() + " only.");
+      } else {
+        String[] args = fields.subList(1, fields.size()).toArray(new String[0]);
+        if (args[0].equals("server")) {
+          if (args.length > 1 && args[1].equals("--stop")) {
+            _listener.close();
+          } else {
+            out.println("A server is already running.");
+          }
+        } else if (args[0].equals("watch")) {
+          out.println("The watch command cannot be run by a server.");
+        } else {
+          execute(args, out);
+        }
+      }
+      out.flush();
+    } catch (IOException excp) {
+      return;
+    }
+  }
+
+  /**
+   * Runs ARGS, printing to OUT.
+   *
+   * @param args command-line arguments
+   * @param out where to print
+   */
+  private static void execute(String[] args, PrintStream out) {
+    try {
+      Main.run(out, args);
+    } catch (IOException | RuntimeException excp) {
+      out.println(excp.getMessage() == null ? excp.toString() : excp.getMessage());
+      excp.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns the bytes of a request field holding S.
+   *
+   * @param s a field
+   * @return byte[] its UTF-8 encoding followed by NUL
+   */
+  private static byte[] field(String s) {
+    byte[] utf = s.getBytes(StandardCharsets.UTF_8);
+    byte[] result = new byte[utf.length + 1];
+    System.arraycopy(utf, 0, result, 0, utf.length);
+    return result;
+  }
+
+  /**
+   * Reads a request from IN: the working directory of the client and its arguments.
+   *
+   * @param in a request
+   * @return List<String> the working directory, then the arguments
+   * @throws IOException on read errors, or if the request is malformed
+   */
+  private static List<String> readFields(InputStream in) throws IOException {
+    List<String> result = new ArrayList<>();
+    result.add(readField(in));
+    int count;
+    try {
+      count = Integer.parseInt(readField(in));
+    } catch (NumberFormatException excp) {
+      throw new IOException("malformed request");
+    }
+    for (int i = 0; i < count; i += 1) {
+      result.add(readField(in));
+    }
+    return result;
+  }
+
+  /**
+   * Reads a NUL-terminated field from IN.
+   *
+   * @param in a request
+   * @return String the field
+   * @throws IOException on read errors, or if the request ends early
+   */
+  private static String readField(InputStream in) throws IOException {
+    ByteArrayOutputStream field = new ByteArrayOutputStream();
+    for (int b = in.read(); b != 0; b = in.read()) {
+      if (b < 0) {
+        throw new IOException("truncated request");
+      }
+      field.write(b);
+    }
+    return field.toString(StandardCharsets.UTF_8);
+  }
+}
@@ -1,83 +1,603 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A class holding all staging and removal actions.
  *
+ * <p>The staging area is a single binary index file listing every file the next commit will track
+ * and every file staged for removal. Each entry holds the id of the staged contents, which are
+ * stored as a blob when they are added, along with the size, modification time and inode the
+ * working file had when it was last known to hold those contents. A working file whose stat data
+ * still matches is not read again. An entry modified no earlier than the index itself was written
+ * may have changed again within the same clock tick, so such racily clean entries are always
+ * re-hashed.
+ *
+ * <p>When a Monitor is running, the index also records the monitor's token and the number of its
+ * last change when the index was written, and marks the entries whose working files were then
+ * known to hold their staged contents. Such an entry stays clean, without even a stat, until the
+ * monitor reports a change to its file.
+ *
+ * <p>The index remembers the head commit it was built from. If the head has moved without it, or
+ * it does not exist yet, it is rebuilt from the head commit, taking in anything staged by older
+ * versions in the add and rm directories.
+ *
  * @author Randy Nguyen
  */
 public class Stage {
 
-  /** The staging folder for addition and removal. */
-  static final File FOLDER = Utils.join(Command.GITLET_FOLDER, "stage");
+  /**
+   * Returns the staging folder of the current repository.
+   *
+   * @return File
+   */
+  static File folder() {
+    return Utils.join(Command.gitletFolder(), "stage");
+  }
+
+  /**
+   * Returns the index file.
+   *
+   * @return File
+   */
+  static File indexFile() {
+    return Utils.join(folder(), "index");
+  }
+
+  /**
+   * Returns the directory of files staged for addition, as written by older versions.
+   *
+   * @return File
+   */
+  static File addFolder() {
+    return Utils.join(folder(), "add");
+  }
+
+  /**
+   * Returns the directory of files staged for removal, as written by older versions.
+   *
+   * @return File
+   */
+  static File rmFolder() {
+    return Utils.join(folder(), "rm");
+  }
+
+  /** Leading int of the index file ("GSTG"). */
+  private static final int MAGIC = 0x47535447;
+
+  /** Version of the index format. */
+  private static final int VERSION = 2;
+
+  /** Entries of the index by file name, once read during this command. */
+  private TreeMap<String, Entry> _entries;
+
+  /** Head commit id the index was built from. */
+  private ObjectId _base;
+
+  /** Token of the Monitor the clean entries of the index were checked against, or 0. */
+  private long _monitorToken;
+
+  /** Number of the last change published by that Monitor when the index was written. */
+  private long _monitorSeq;
+
+  /** Modification time of the index file when it was read, in nanoseconds. */
+  private long _indexTime;
+
+  /** Whether the index has changed since it was read. */
+  private boolean _dirty;
+
+  /** Ids of the files written to the working directory during this command, by name. */
+  private final HashMap<String, ObjectId> _written = new HashMap<>();
+
+  /**
+   * Returns what this command has learned about the index of the current repository.
+   *
+   * @return Stage
+   */
+  private static Stage state() {
+    return Repository.current().stage();
+  }
+
+  /** An entry of the index. */
+  private static class Entry {
+
+    /** Sha1 of the staged contents. */
+    private final ObjectId _id;
+
+    /** Whether the file is staged for removal. */
+    private final boolean _removed;
+
+    /** Size of the working file when it last held the staged contents, or -1. */
+    private long _size;
 
-  /** A directory of files staged for addition. */
-  static final File ADD = Utils.join(FOLDER, "add");
+    /** Modification time in nanoseconds of the working file then. */
+    private long _mtime;
 
-  /** A directory of files staged for removal. */
-  static final File RM = Utils.join(FOLDER, "rm");
+    /** Inode of the working file then. */
+    private long _inode;
+
+    /** Whether the working file held the staged contents as of the Monitor's last change. */
+    private boolean _clean;
+
+    /** Whether the stat data was recorded during this command. */
+    private boolean _fresh;
+
+    /**
+     * An entry for contents ID with no stat data.
+     *
+     * @param id sha1 of the staged contents
+     * @param removed whether the file is staged for removal
+     */
+    Entry(ObjectId id, boolean removed) {
+      _id = id;
+      _removed = removed;
+      _size = -1;
+    }
+
+    /**
+     * Records the stat data STAT of the working file as matching this entry.
+     *
+     * @param stat size, modification time and inode
+     */
+    void setStat(long[] stat) {
+      _size = stat[0];
+      _mtime = stat[1];
+      _inode = stat[2];
+      _fresh = true;
+    }
+
+    /**
+     * Returns true iff STAT is the stat data recorded for this entry and it was recorded safely
+     * before the index was last written.
+     *
+     * @param stat size, modification time and inode
+     * @return boolean
+     */
+    boolean matches(long[] stat) {
+      return sameStat(stat) && _mtime < state()._indexTime;
+    }
+
+    /**
+     * Returns true iff STAT is the stat data recorded for this entry.
+     *
+     * @param stat size, modification time and inode, or null
+     * @return boolean
+     */
+    boolean sameStat(long[] stat) {
+      return stat != null && _size == stat[0] && _mtime == stat[1] && _inode == stat[2];
+    }
+
+    /**
+     * Returns true iff the working file NAME is known to hold the staged contents without
+     * looking at it, because the Monitor has seen no change to it since it was clean.
+     *
+     * @param name file name
+     * @return boolean
+     */
+    boolean trusted(String name) {
+      Stage stage = state();
+      return _clean
+          && !_removed
+          && Monitor.unchangedSince(name, stage._monitorToken, stage._monitorSeq);
+    }
+  }
 
   /**
    * Adds the given a copy of the filename in the staging area. If it already exists, the contents
    * are replaced with the CWD version. If it's the same, it is removed from the stage if there. If
-   * the file is staged for removal, remove it from there. Runs in O(lg(N))
-   *
-   * @param args Array in format: {'add', filename}
-   */
-  public static void add(String[] args) throws IOException {
-    File copy = Utils.join(ADD, args[1]);
-    File cwd = Utils.join(Command.CWD, args[1]);
-    copy.createNewFile();
-    Utils.writeContents(copy, Utils.readContents(cwd));
-    Commit headCommit = Branches.headCommit();
-    if (headCommit.getFiles().containsKey(args[1])) {
-      String headSha = headCommit.getFiles().get(args[1]);
-      String copySha = Utils.sha1(Utils.readContents(copy));
-      if (headSha.equals(copySha)) {
-        copy.delete();
-      }
+   * the file is staged for removal, remove it from there. The file is only read if its stat data
+   * changed since it was last staged, and then once, its contents being hashed as they are stored.
+   * The name is first made relative to the working directory, as it is tracked. Runs in O(lg(N))
+   *
+   * @param name file name
+   */
+  public static void add(String name) throws IOException {
+    name = trackedName(name);
+    File cwd = Utils.join(Command.cwd(), name);
+    if (!cwd.isFile()) {
+      throw Utils.error("File does not exist.");
+    }
+    long[] stat = stat(cwd);
+    Entry old = entries().get(name);
+    ObjectId sha;
+    if (old != null && !old._removed && old.matches(stat)) {
+      sha = old._id;
+    } else {
+      sha = write(cwd, Branches.headCommit().getFiles().get(name));
     }
-    File rmVer = Utils.join(RM, args[1]);
-    if (rmVer.exists()) {
-      rmVer.delete();
+    Entry added = new Entry(sha, false);
+    added.setStat(stat);
+    state()._entries.put(name, added);
+    state()._dirty = true;
+  }
+
+  /**
+   * Returns the path NAME, relative to the working directory, as the name of the file it is
+   * tracked under: normalized and '/'-separated. Throws the error of a missing file if NAME leads
+   * out of the working directory, to the working directory itself or into its .gitlet folder.
+   *
+   * @param name file path
+   * @return String file name
+   */
+  static String trackedName(String name) {
+    Path root = Command.cwd().toPath().toAbsolutePath().normalize();
+    Path path = root.resolve(name).normalize();
+    Path meta = Command.gitletFolder().toPath().toAbsolutePath().normalize();
+    if (!path.startsWith(root) || path.equals(root) || path.startsWith(meta)) {
+      throw Utils.error("File does not exist.");
     }
+    return root.relativize(path).toString().replace(File.separatorChar, '/');
   }
 
   /**
    * Unstage the file if it is currently staged for addition. If the file is tracked in the current
    * commit, stage it for removal and remove the file from the working directory if possible.
+   * The name is first made relative to the working directory, as it is tracked.
    *
-   * @param args {'rm', filename}
+   * @param name file name
    */
-  public static void rm(String[] args) throws IOException {
-    List<String> stagedFiles = Utils.plainFilenamesIn(ADD);
-    boolean inStage = stagedFiles.contains(args[1]);
-    boolean inTracked = Branches.headCommit().getFiles().containsKey(args[1]);
+  public static void rm(String name) throws IOException {
+    name = trackedName(name);
+    ObjectId headSha = Branches.headCommit().getFiles().get(name);
+    boolean inStage = isStaged(name);
+    boolean inTracked = headSha != null;
     if (!inStage && !inTracked) {
-      System.out.println("No reason to remove the file.");
-    } else {
-      if (inStage) {
-        File stageVer = Utils.join(Stage.ADD, args[1]);
-        stageVer.delete();
+      throw Utils.error("No reason to remove the file.");
+    }
+    if (inStage) {
+      entries().remove(name);
+    }
+    if (inTracked) {
+      entries().put(name, new Entry(headSha, true));
+      Command.deleteFile(name);
+    }
+    state()._dirty = true;
+  }
+
+  /**
+   * Clears the staging area, leaving it holding exactly the files of the head commit. Keeps the
+   * stat data of unchanged entries and of files written during this command.
+   */
+  public static void clearStage() {
+    TreeMap<String, Entry> old = entries();
+    state()._entries = new TreeMap<>();
+    for (Map.Entry<String, ObjectId> file : Branches.headCommit().getFiles().entrySet()) {
+      String name = file.getKey();
+      ObjectId id = file.getValue();
+      Entry prev = old.get(name);
+      long[] stat =
+          id.equals(state()._written.get(name)) ? stat(Utils.join(Command.cwd(), name)) : null;
+      if (stat == null && prev != null && prev._id.equals(id) && !prev._removed) {
+        state()._entries.put(name, prev);
+      } else {
+        Entry e = new Entry(id, false);
+        if (stat != null) {
+          e.setStat(stat);
+        }
+        state()._entries.put(name, e);
+      }
+    }
+    state()._base = Branches.headId();
+    state()._dirty = true;
+  }
+
+  /**
+   * Notes that the working file NAME was just written with the contents whose sha1 is ID, so that
+   * its stat data can be kept if it ends up in the index.
+   *
+   * @param name file name
+   * @param id sha1 of its contents
+   */
+  public static void written(String name, ObjectId id) {
+    state()._written.put(name, id);
+  }
+
+  /**
+   * Returns the names of the files staged for addition, in order.
+   *
+   * @return List<String> names
+   */
+  public static List<String> staged() {
+    List<String> result = new ArrayList<>();
+    for (String name : entries().keySet()) {
+      if (isStaged(name)) {
+        result.add(name);
       }
-      if (inTracked) {
-        File rmVer = Utils.join(Stage.RM, args[1]);
-        rmVer.createNewFile();
-        Utils.join(Command.CWD, args[1]).delete();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the names of the files staged for removal, in order.
+   *
+   * @return List<String> names
+   */
+  public static List<String> removed() {
+    List<String> result = new ArrayList<>();
+    for (Map.Entry<String, Entry> e : entries().entrySet()) {
+      if (e.getValue()._removed) {
+        result.add(e.getKey());
       }
     }
+    return result;
   }
 
-  /** Clears the staging area (the ADD and RM directories). */
-  public static void clearStage() {
-    for (File f : Stage.ADD.listFiles()) {
-      f.delete();
+  /**
+   * Returns true iff anything is staged for addition or removal.
+   *
+   * @return boolean
+   */
+  public static boolean hasChanges() {
+    return !staged().isEmpty() || !removed().isEmpty();
+  }
+
+  /**
+   * Returns true iff NAME is staged for addition: in the index with contents other than those of
+   * the head commit.
+   *
+   * @param name file name
+   * @return boolean
+   */
+  public static boolean isStaged(String name) {
+    Entry e = entries().get(name);
+    return e != null
+        && !e._removed
+        && !e._id.equals(Branches.headCommit().getFiles().get(name));
+  }
+
+  /**
+   * Returns the files the next commit will track: the sha1 of their contents by name.
+   *
+   * @return TreeMap<String, ObjectId> tracked files
+   */
+  public static TreeMap<String, ObjectId> snapshot() {
+    TreeMap<String, ObjectId> result = new TreeMap<>();
+    for (Map.Entry<String, Entry> e : entries().entrySet()) {
+      if (!e.getValue()._removed) {
+        result.put(e.getKey(), e.getValue()._id);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the sha1 of the contents staged for NAME, or null if it is not in the index or is
+   * staged for removal.
+   *
+   * @param name file name
+   * @return ObjectId sha1
+   */
+  public static ObjectId stagedId(String name) {
+    Entry e = entries().get(name);
+    return e == null || e._removed ? null : e._id;
+  }
+
+  /**
+   * Returns the sha1 of the contents of the working file NAME, or null if there is none. The file
+   * is not even looked at if the Monitor vouches for its entry, and only read if its stat data does
+   * not match its entry in the index. When it is read and turns
+   * out to hold the staged contents after all, its entry is refreshed.
+   *
+   * @param name file name
+   * @return ObjectId sha1
+   */
+  public static ObjectId workingId(String name) {
+    Entry e = entries().get(name);
+    if (e != null && e.trusted(name)) {
+      return e._id;
+    }
+    File f = Utils.join(Command.cwd(), name);
+    long[] stat = stat(f);
+    if (stat == null) {
+      return null;
+    }
+    if (e != null && !e._removed && e.matches(stat)) {
+      return e._id;
+    }
+    ObjectId sha = ObjectId.fromHex(Utils.sha1(f));
+    if (e != null && !e._removed && e._id.equals(sha)) {
+      e.setStat(stat);
+      state()._dirty = true;
+    }
+    return sha;
+  }
+
+  /**
+   * Returns the index entries, reading the index the first time they are needed during this
+   * command, and rebuilding it if it was not built from the current head commit.
+   *
+   * @return TreeMap<String, Entry> entries by name
+   */
+  private static TreeMap<String, Entry> entries() {
+    if (state()._entries == null) {
+      read();
+      if (!Branches.headId().equals(state()._base)) {
+        clearStage();
+        importLegacy();
+      }
+    }
+    return state()._entries;
+  }
+
+  /** Reads the index file, if any, into _entries. */
+  private static void read() {
+    state()._entries = new TreeMap<>();
+    state()._base = null;
+    state()._monitorToken = 0;
+    state()._monitorSeq = 0;
+    state()._indexTime = 0;
+    state()._dirty = false;
+    long token = Monitor.token();
+    if (!indexFile().isFile()) {
+      return;
+    }
+    DataInputStream in =
+        new DataInputStream(new ByteArrayInputStream(Utils.readContents(indexFile())));
+    try {
+      state()._indexTime =
+          Files.getLastModifiedTime(indexFile().toPath()).to(TimeUnit.NANOSECONDS);
+      int magic = in.readInt();
+      int version = in.readInt();
+      if (magic != MAGIC || version < 1 || version > VERSION) {
+        throw Utils.error("Unsupported index format.");
+      }
+      state()._base = ObjectId.read(in);
+      if (version > 1) {
+        state()._monitorToken = in.readLong();
+        state()._monitorSeq = in.readLong();
+      }
+      for (int n = in.readInt(); n > 0; n -= 1) {
+        byte[] utf = new byte[in.readUnsignedShort()];
+        in.readFully(utf);
+        String name = new String(utf, StandardCharsets.UTF_8);
+        ObjectId id = ObjectId.read(in);
+        Entry e = new Entry(id, in.readBoolean());
+        e._size = in.readLong();
+        e._mtime = in.readLong();
+        e._inode = in.readLong();
+        e._clean = version > 1 && in.readBoolean();
+        state()._entries.put(name, e);
+      }
+      state()._dirty =
+          token != 0
+              && (token != state()._monitorToken || Monitor.seq() != state()._monitorSeq);
+    } catch (IOException excp) {
+      throw Utils.error("Corrupt index.");
+    }
+  }
+
+  /** Writes the index file if it changed during this command. */
+  public static void write() {
+    if (state()._entries == null || !state()._dirty) {
+      return;
+    }
+    if (Monitor.token() != 0) {
+      for (Map.Entry<String, Entry> file : state()._entries.entrySet()) {
+        Entry e = file.getValue();
+        String name = file.getKey();
+        if (!e.trusted(name)) {
+          long[] stat = e._removed || e._size < 0 ? null : stat(Utils.join(Command.cwd(), name));
+          e._clean = e._fresh ? e.sameStat(stat) : stat != null && e.matches(stat);
+        }
+      }
+      state()._monitorToken = Monitor.token();
+      state()._monitorSeq = Monitor.seq();
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      state()._base.write(out);
+      out.writeLong(state()._monitorToken);
+      out.writeLong(state()._monitorSeq);
+      out.writeInt(state()._entries.size());
+      for (Map.Entry<String, Entry> file : state()._entries.entrySet()) {
+        Entry e = file.getValue();
+        byte[] utf = file.getKey().getBytes(StandardCharsets.UTF_8);
+        out.writeShort(utf.length);
+        out.write(utf);
+        e._id.write(out);
+        out.writeBoolean(e._removed);
+        out.writeLong(e._size);
+        out.writeLong(e._mtime);
+        out.writeLong(e._inode);
+        out.writeBoolean(e._clean);
+      }
+      out.close();
+      File tmp = Utils.join(folder(), "index.tmp");
+      Utils.writeContents(tmp, bytes.toByteArray());
+      Files.move(tmp.toPath(), indexFile().toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException excp) {
+      throw new IllegalArgumentException(excp.getMessage());
     }
-    for (File f : Stage.RM.listFiles()) {
-      f.delete();
+    state()._dirty = false;
+  }
+
+
+  /**
+   * Moves anything staged by older versions, as copies in the add directory and empty files in
+   * the rm directory, into the index, and removes those directories.
+   */
+  private static void importLegacy() {
+    for (File dir : new File[] {addFolder(), rmFolder()}) {
+      File[] files = dir.listFiles();
+      if (files == null) {
+        continue;
+      }
+      for (File f : files) {
+        String name = f.getName();
+        try {
+          ObjectId tracked = Branches.headCommit().getFiles().get(name);
+          if (dir.equals(addFolder())) {
+            state()._entries.put(name, new Entry(write(f, tracked), false));
+          } else if (tracked != null) {
+            state()._entries.put(name, new Entry(tracked, true));
+          }
+        } catch (IOException excp) {
+          throw new IllegalArgumentException(excp.getMessage());
+        }
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  /**
+   * Returns the size, modification time in nanoseconds and inode of F, or null if it is not a
+   * plain file. The inode is 0 where the file system does not report one.
+   *
+   * @param f a file
+   * @return long[] stat data
+   */
+  static long[] stat(File f) {
+    if (!f.isFile()) {
+      return null;
+    }
+    try {
+      Map<String, Object> attrs;
+      try {
+        attrs = Files.readAttributes(f.toPath(), "unix:size,lastModifiedTime,ino");
+      } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+        attrs = Files.readAttributes(f.toPath(), "size,lastModifiedTime");
+      }
+      Object ino = attrs.get("ino");
+      return new long[] {
+        (Long) attrs.get("size"),
+        ((FileTime) attrs.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+        ino instanceof Long ? (Long) ino : 0
+      };
+    } catch (IOException excp) {
+      return null;
     }
   }
+
+  /**
+   * Stores the contents of F as a blob, as a delta against the blob BASE if that pays, and returns
+   * its id.
+   *
+   * @param f a file
+   * @param base sha1 of the contents F was last committed with, or null
+   * @return ObjectId sha1
+   * @throws IOException on read or write errors
+   */
+  private static ObjectId write(File f, ObjectId base) throws IOException {
+    return ObjectId.fromHex(Blobs.write(f, base == null ? null : base.toString()));
+  }
 }
@@ -0,0 +1,333 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Class representing trees: the tracked files of a commit, stored one directory at a time.
+ *
+ * <p>A tree lists the entries of a directory in name order: each file with the SHA1 of its
+ * contents, and each subdirectory, whose name ends in '/', with the SHA1 of its own tree. The id of
+ * a tree is the SHA1 of its encoding, so a directory that holds the same files in two commits has
+ * the same tree in both, stored once. A commit names the tree of the whole working directory, and
+ * a new commit writes only the trees of the directories its changes are in. Two trees are compared
+ * by walking them together, skipping the subdirectories whose ids are equal.
+ *
+ * <p>Trees are stored like commits, compressed, loose or in packs, in the trees folder. Like
+ * commits, recently read trees are kept decoded, up to CACHE_LIMIT, since checkout, status and
+ * merge read the same directories again and again.
+ *
+ * @author Randy Nguyen
+ */
+public class Tree {
+
+  /**
+   * Returns the folder of the current repository holding its trees.
+   *
+   * @return File
+   */
+  static File folder() {
+    return Utils.join(Command.gitletFolder(), "trees");
+  }
+
+  /** Leading int of every encoded tree ("GTRE"). */
+  private static final int MAGIC = 0x47545245;
+
+  /** Version of the tree encoding. */
+  private static final int VERSION = 1;
+
+  /** Most bytes of memory taken up by cached trees, as estimated by weight. */
+  static final long CACHE_LIMIT = 16 << 20;
+
+  /** Recently read trees by sha1, least recently used first. */
+  private static final LinkedHashMap<ObjectId, TreeMap<String, ObjectId>> CACHE =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  /** Total weight of the cached trees. */
+  private static long _cached;
+
+  /**
+   * Returns the id of the tree of the files of the tree BASE, or of no files if BASE is null, with
+   * the CHANGES made to them: the sha1 of the new contents of each file by path, or null for a file
+   * that is removed. Only the trees of the directories CHANGES are in are read and written.
+   *
+   * @param base sha1 of a tree, or null
+   * @param changes sha1s of contents, or null, by path
+   * @return ObjectId sha1 of the tree
+   */
+  public static ObjectId write(ObjectId base, TreeMap<String, ObjectId> changes) {
+    folder().mkdir();
+    ObjectId result = update(base, changes);
+    return result != null ? result : store(new TreeMap<>());
+  }
+
+  /**
+   * Returns the id of the tree BASE with CHANGES, by path relative to it, made to its files, or
+   * null if no file is left in it. Writes the new trees that are not stored yet.
+   *
+   * @param base sha1 of a tree, or null
+   * @param changes sha1s of contents, or null, by relative path
+   * @return ObjectId sha1 of the tree, or null
+   */
+  private static ObjectId update(ObjectId base, NavigableMap<String, ObjectId> changes) {
+    TreeMap<String, ObjectId> entries = new TreeMap<>();
+    if (base != null) {
+      entries.putAll(read(base));
+    }
+    String name = changes.isEmpty() ? null : changes.firstKey();
+    while (name != null) {
+      int slash = name.indexOf('/');
+      if (slash < 0) {
+        ObjectId id = changes.get(name);
+        if (id == null) {
+          entries.remove(name);
+        } else {
+          entries.put(name, id);
+        }
+        name = changes.higherKey(name);
+        continue;
+      }
+      String dir = name.substring(0, slash + 1);
+      String after = name.substring(0, slash) + (char) ('/' + 1);
+      TreeMap<String, ObjectId> inside = new TreeMap<>();
+      for (Map.Entry<String, ObjectId> e : changes.subMap(dir, after).entrySet()) {
+        inside.put(e.getKey().substring(dir.length()), e.getValue());
+      }
+      ObjectId sub = update(entries.get(dir), inside);
+      if (sub == null) {
+        entries.remove(dir);
+      } else {
+        entries.put(dir, sub);
+      }
+      name = changes.ceilingKey(after);
+    }
+    return entries.isEmpty() ? null : store(entries);
+  }
+
+  /**
+   * Stores the tree with the given ENTRIES, unless it is already stored, and returns its id.
+   *
+   * @param entries sha1s by name
+   * @return ObjectId sha1 of the tree
+   */
+  private static ObjectId store(TreeMap<String, ObjectId> entries) {
+    byte[] contents = encode(entries);
+    String name = Utils.sha1(contents);
+    if (!Pack.contains(folder(), name)) {
+      Utils.writeStored(Pack.newLoose(folder(), name), contents);
+    }
+    return ObjectId.fromHex(name);
+  }
+
+  /**
+   * Returns the files of the tree ID: the sha1 of their contents by path.
+   *
+   * @param id sha1 of a tree
+   * @return TreeMap<String, ObjectId> tracked files
+   */
+  public static TreeMap<String, ObjectId> files(ObjectId id) {
+    TreeMap<String, ObjectId> result = new TreeMap<>();
+    files(id, "", result);
+    return result;
+  }
+
+  /**
+   * Adds to RESULT the files of the tree ID, each path preceded by PREFIX.
+   *
+   * @param id sha1 of a tree
+   * @param prefix path of its directory
+   * @param result tracked files
+   */
+  private static void files(ObjectId id, String prefix, TreeMap<String, ObjectId> result) {
+    for (Map.Entry<String, ObjectId> e : read(id).entrySet()) {
+      if (e.getKey().endsWith("/")) {
+        files(e.getValue(), prefix + e.getKey(), result);
+      } else {
+        result.put(prefix + e.getKey(), e.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns the sha1 of the contents of the file PATH in the tree ID, or null if it has none.
+   * Reads only the trees of the directories on the way.
+   *
+   * @param id sha1 of a tree
+   * @param path file path
+   * @return ObjectId sha1
+   */
+  public static ObjectId find(ObjectId id, String path) {
+    int start = 0;
+    for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', start)) {
+      id = read(id).get(path.substring(start, slash + 1));
+      if (id == null) {
+        return null;
+      }
+      start = slash + 1;
+    }
+    String name = path.substring(start);
+    return name.isEmpty() ? null : read(id).get(name);
+  }
+
+  /**
+   * Adds to BEFORE and AFTER the files that differ between the trees A and B, either of which may
+   * be null for no files: to BEFORE those of A, and to AFTER those of B. Subdirectories with the
+   * same tree in both are skipped without being read.
+   *
+   * @param a sha1 of a tree, or null
+   * @param b sha1 of a tree, or null
+   * @param before files of A that differ, by path
+   * @param after files of B that differ, by path
+   */
+  public static void diff(
+      ObjectId a, ObjectId b, TreeMap<String, ObjectId> before, TreeMap<String, ObjectId> after) {
+    diff(a, b, "", before, after);
+  }
+
+  /**
+   * Adds to BEFORE and AFTER the files that differ between the trees A and B, as for diff, each
+   * path preceded by PREFIX.
+   *
+   * @param a sha1 of a tree, or null
+   * @param b sha1 of a tree, or null
+   * @param prefix path of their directory
+   * @param before files of A that differ, by path
+   * @param after files of B that differ, by path
+   */
+  private static void diff(
+      ObjectId a,
+      ObjectId b,
+      String prefix,
+      TreeMap<String, ObjectId> before,
+      TreeMap<String, ObjectId> after) {
+    if (Objects.equals(a, b)) {
+      return;
+    }
+    TreeMap<String, ObjectId> ours = a == null ? new TreeMap<>() : read(a);
+    TreeMap<String, ObjectId> theirs = b == null ? new TreeMap<>() : read(b);
+    TreeSet<String> names = new TreeSet<>(ours.keySet());
+    names.addAll(theirs.keySet());
+    for (String name : names) {
+      ObjectId x = ours.get(name);
+      ObjectId y = theirs.get(name);
+      if (Objects.equals(x, y)) {
+        continue;
+      } else if (name.endsWith("/")) {
+        diff(x, y, prefix + name, before, after);
+        continue;
+      }
+      if (x != null) {
+        before.put(prefix + name, x);
+      }
+      if (y != null) {
+        after.put(prefix + name, y);
+      }
+    }
+  }
+
+  /**
+   * Returns the entries of the tree ID: the sha1 of each file or subdirectory by name. Recently
+   * read trees are kept decoded, so the same map is returned again and must not be modified.
+   *
+   * @param id sha1 of a tree
+   * @return TreeMap<String, ObjectId> entries
+   */
+  private static TreeMap<String, ObjectId> read(ObjectId id) {
+    synchronized (CACHE) {
+      TreeMap<String, ObjectId> hit = CACHE.get(id);
+      if (hit != null) {
+        return hit;
+      }
+    }
+    TreeMap<String, ObjectId> result = decode(id);
+    long weight = weight(result);
+    synchronized (CACHE) {
+      TreeMap<String, ObjectId> old = CACHE.put(id, result);
+      _cached += weight - (old == null ? 0 : weight(old));
+      Iterator<TreeMap<String, ObjectId>> oldest = CACHE.values().iterator();
+      while (_cached > CACHE_LIMIT && oldest.hasNext()) {
+        _cached -= weight(oldest.next());
+        oldest.remove();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a rough count of the bytes of memory the tree ENTRIES take up.
+   *
+   * @param entries sha1s by name
+   * @return long bytes
+   */
+  private static long weight(TreeMap<String, ObjectId> entries) {
+    long result = 64;
+    for (String name : entries.keySet()) {
+      result += 128 + 2L * name.length();
+    }
+    return result;
+  }
+
+  /**
+   * Decodes the tree ID from the packs or loose files of the trees folder.
+   *
+   * @param id sha1 of a tree
+   * @return TreeMap<String, ObjectId> entries
+   */
+  private static TreeMap<String, ObjectId> decode(ObjectId id) {
+    byte[] bytes = Utils.readAll(Pack.open(folder(), id.toString()));
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    TreeMap<String, ObjectId> result = new TreeMap<>();
+    try {
+      if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+        throw Utils.error("Unsupported tree format.");
+      }
+      for (int n = in.readInt(); n > 0; n -= 1) {
+        byte[] utf = new byte[in.readInt()];
+        in.readFully(utf);
+        result.put(new String(utf, StandardCharsets.UTF_8), ObjectId.read(in));
+      }
+    } catch (IOException excp) {
+      throw Utils.error("Corrupt tree.");
+    }
+    return result;
+  }
+
+  /**
+   * Returns the binary encoding of the tree with the given ENTRIES: MAGIC, VERSION, the number of
+   * entries, then each name with the raw id of its contents or tree, in name order.
+   *
+   * @param entries sha1s by name
+   * @return byte[] the encoding
+   */
+  private static byte[] encode(TreeMap<String, ObjectId> entries) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 48 * entries.size());
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      out.writeInt(entries.size());
+      for (Map.Entry<String, ObjectId> e : entries.entrySet()) {
+        byte[] utf = e.getKey().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf.length);
+        out.write(utf);
+        e.getValue().write(out);
+      }
+      out.close();
+    } catch (IOException excp) {
+      throw Utils.error("Internal error encoding tree.");
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -1,22 +1,33 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.Collections;
 import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 
 /** Assorted utilities.
@@ -32,27 +43,94 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        }
+        return toHex(md.digest());
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, read once in
+     *  blocks, so that files of any size can be hashed. */
+    static String sha1(File file) {
+        return copyAndHash(file, null);
+    }
+
+    /** Copies FILE to DEST, unless DEST is null, and returns the SHA-1
+     *  hash of the contents of FILE, computed as they are copied.  FILE
+     *  is read exactly once, one block at a time.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String copyAndHash(File file, File dest) {
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        ByteBuffer buf = ByteBuffer.allocateDirect(STORE_BUFFER);
+        try (FileChannel in = FileChannel.open(file.toPath());
+             FileChannel out = dest == null ? null
+                 : FileChannel.open(dest.toPath(),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                    StandardOpenOption.WRITE)) {
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf.duplicate());
+                while (out != null && buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                buf.clear();
             }
-            return result.toString();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** SHA-1 MessageDigest of each thread, reset and reused by every hash
+     *  computed in one call, so that hashing many small objects does not
+     *  look up and build a digest for each. */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+        ThreadLocal.withInitial(Utils::sha1Digest);
+
+    /** Returns a new SHA-1 MessageDigest, for a caller that keeps it while
+     *  other hashes may be computed. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Lower-case hexadecimal digits, by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Returns DIGEST as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] digest) {
+        char[] result = new char[2 * digest.length];
+        for (int i = 0; i < digest.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Returns the bytes of the hexadecimal numeral HEX, two digits per
+     *  byte, as produced by toHex. */
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4)
+                                | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
@@ -136,9 +214,17 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        return readObject(openStored(file), expectedClass);
+    }
+
+    /** Return an object of type T read from STREAM, casting it to
+     *  EXPECTEDCLASS, and close STREAM.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T readObject(InputStream stream,
+                                                 Class<T> expectedClass) {
         try {
             ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+                new ObjectInputStream(stream);
             T result = expectedClass.cast(in.readObject());
             in.close();
             return result;
@@ -153,6 +239,147 @@ class Utils {
         writeContents(file, serialize(obj));
     }
 
+    /* COMPRESSED OBJECT STORAGE */
+
+    /** Leading bytes of every file written by writeStored. */
+    static final byte[] STORE_MAGIC = {'G', 'L', 'T'};
+
+    /** Version of the stored-object format following STORE_MAGIC. */
+    static final int STORE_VERSION = 1;
+
+    /** Encoding byte for a deflated payload. */
+    static final int ENCODING_DEFLATE = 0;
+
+    /** Encoding byte for a delta against another stored object (see
+     *  Blobs): a preamble naming the base, then deflated instructions. */
+    static final int ENCODING_DELTA = 1;
+
+    /** Encoding byte for a deflated manifest of the chunks a large object
+     *  was split into (see Blobs). */
+    static final int ENCODING_CHUNKED = 2;
+
+    /** Size of the buffers used when streaming stored objects. */
+    static final int STORE_BUFFER = 1 << 16;
+
+    /** Write the bytes of IN to FILE as a deflated stored object: the
+     *  STORE_MAGIC, the STORE_VERSION, an encoding byte and then the
+     *  payload.  The object is written next to FILE and renamed into
+     *  place, so a reader never sees it half written.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeStored(File file, InputStream in) {
+        writeStored(file, ENCODING_DEFLATE, new byte[0], in);
+    }
+
+    /** Write CONTENTS to FILE as a deflated stored object. */
+    static void writeStored(File file, byte[] contents) {
+        writeStored(file, new ByteArrayInputStream(contents));
+    }
+
+    /** Write a stored object to FILE as for writeStored(File, InputStream),
+     *  but with the given ENCODING byte and with the bytes of PREAMBLE
+     *  written uncompressed between the header and the deflated bytes of
+     *  IN. */
+    static void writeStored(File file, int encoding, byte[] preamble,
+                            InputStream in) {
+        File tmp = new File(file.getPath() + ".tmp");
+        Deflater deflater = new Deflater();
+        try {
+            BufferedOutputStream str =
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath()),
+                                         STORE_BUFFER);
+            str.write(STORE_MAGIC);
+            str.write(STORE_VERSION);
+            str.write(encoding);
+            str.write(preamble);
+            DeflaterOutputStream out =
+                new DeflaterOutputStream(str, deflater, STORE_BUFFER);
+            in.transferTo(out);
+            out.close();
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Return a stream over the decoded contents of FILE.  FILE may have
+     *  been written by writeStored or, for repositories created before
+     *  objects were compressed, hold the raw contents.  Nothing beyond
+     *  the header is read until the caller reads from the stream.
+     *  Throws IllegalArgumentException in case of problems. */
+    static InputStream openStored(File file) {
+        try {
+            return openStored(new FileInputStream(file), file.getName());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream over the decoded contents of the stored object
+     *  whose undecoded bytes are RAW, as for openStored(File).  NAME
+     *  identifies the object in error messages.  Only plain and
+     *  deflated objects can be decoded on their own. */
+    static InputStream openStored(InputStream raw, String name) {
+        BufferedInputStream in = new BufferedInputStream(raw, STORE_BUFFER);
+        int encoding = readStoredHeader(in, name);
+        if (encoding < 0) {
+            return in;
+        } else if (encoding == ENCODING_DEFLATE) {
+            return new InflaterInputStream(in);
+        } else {
+            throw error("Object %s cannot be decoded by itself.", name);
+        }
+    }
+
+    /** Read the header of the stored object at the start of IN and return
+     *  its encoding byte, leaving IN just past the header.  If IN has no
+     *  header, as for objects written before objects were compressed,
+     *  return -1 and leave IN at its start.  NAME identifies the object
+     *  in error messages. */
+    static int readStoredHeader(BufferedInputStream in, String name) {
+        try {
+            in.mark(STORE_MAGIC.length + 2);
+            byte[] header = in.readNBytes(STORE_MAGIC.length + 2);
+            if (header.length < STORE_MAGIC.length + 2
+                || !Arrays.equals(header, 0, STORE_MAGIC.length,
+                                  STORE_MAGIC, 0, STORE_MAGIC.length)) {
+                in.reset();
+                return -1;
+            }
+            int version = header[STORE_MAGIC.length];
+            int encoding = header[STORE_MAGIC.length + 1];
+            if (version != STORE_VERSION
+                || encoding < ENCODING_DEFLATE
+                || encoding > ENCODING_CHUNKED) {
+                in.close();
+                throw error("Unsupported object format %d/%d in %s.",
+                            version, encoding, name);
+            }
+            return encoding;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the entire decoded contents of the stored object FILE. */
+    static byte[] readStored(File file) {
+        return readAll(openStored(file));
+    }
+
+    /** Return everything remaining in IN as a byte array, closing IN.
+     *  Throws IllegalArgumentException in case of problems. */
+    static byte[] readAll(InputStream in) {
+        try (in) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* DIRECTORIES */
 
     /** Filter out all but plain files. */
@@ -184,6 +411,39 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns a list of the paths of all plain files in the directory DIR
+     *  and its subdirectories, other than the .gitlet directory, relative
+     *  to DIR with components separated by '/', in lexicographic order as
+     *  Java Strings.  Returns null if DIR does not denote a directory. */
+    static List<String> filenamesUnder(File dir) {
+        if (!dir.isDirectory()) {
+            return null;
+        }
+        List<String> result = new ArrayList<>();
+        filenamesUnder(dir, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Add to RESULT the paths of the plain files under DIR, each
+     *  preceded by PREFIX. */
+    private static void filenamesUnder(File dir, String prefix,
+                                       List<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = prefix + f.getName();
+            if (f.isFile()) {
+                result.add(name);
+            } else if (f.isDirectory() && !name.equals(".gitlet")
+                       && !Files.isSymbolicLink(f.toPath())) {
+                filenamesUnder(f, name + "/", result);
+            }
+        }
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,